@@ -78,6 +78,9 @@ public class AutoIndentWriter implements StringTemplateWriter {
 
 	protected int charPositionOfStartOfExpr = 0;
 
+	/** Scratch space for write(long) so numbers don't go through a String */
+	protected char[] digits = new char[20];
+
 	public AutoIndentWriter(Writer out, String newline) {
 		this.out = out;
 		indents.add(null); // s oftart with no indent
@@ -175,6 +178,55 @@ public class AutoIndentWriter implements StringTemplateWriter {
 		return n;
 	}
 
+	/** Same as write(String.valueOf(v)) but the digits are formatted
+	 *  straight into a scratch buffer; no String is created.  Subclasses
+	 *  that override write(String) to change the text should override
+	 *  writeDigits() too.
+	 */
+	public int write(long v) throws IOException {
+		if ( v==Long.MIN_VALUE ) { // can't negate
+			return write(String.valueOf(v));
+		}
+		boolean neg = v<0;
+		if ( neg ) v = -v;
+		int p = digits.length;
+		do {
+			digits[--p] = (char)('0' + (int)(v % 10));
+			v /= 10;
+		} while ( v!=0 );
+		if ( neg ) digits[--p] = '-';
+		return writeDigits(digits, p, digits.length-p);
+	}
+
+	/** Same as write(String.valueOf(v)).  Integral values in the range
+	 *  that Double.toString() prints as "123.0" are formatted without a
+	 *  String; anything else (fractions, exponents, NaN) is handed to
+	 *  Double.toString().
+	 */
+	public int write(double v) throws IOException {
+		if ( v > -1e7 && v < 1e7 && v==(long)v &&
+			 !(v==0 && 1/v<0) ) // -0.0 prints as "-0.0"
+		{
+			int n = write((long)v);
+			digits[0] = '.';
+			digits[1] = '0';
+			return n + writeDigits(digits, 0, 2);
+		}
+		return write(String.valueOf(v));
+	}
+
+	/** Write chars that contain no newlines, indenting first if needed */
+	protected int writeDigits(char[] buf, int off, int len) throws IOException {
+		int n = 0;
+		if ( atStartOfLine ) {
+			n += indent();
+			atStartOfLine = false;
+		}
+		out.write(buf, off, len);
+		charPosition += len;
+		return n + len;
+	}
+
     public int writeSeparator(String str) throws IOException {
 		return write(str);
 	}
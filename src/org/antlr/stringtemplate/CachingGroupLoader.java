@@ -0,0 +1,229 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A group loader that parses each distinct group file only once.  Groups
+ *  are cached by name, SHA-1 of the file's text, template lexer and
+ *  supergroup, so asking again for a group whose file hasn't changed
+ *  returns the same compiled StringTemplateGroup, no matter how many
+ *  tenants or subgroups ask for it.  Edit the file and the next load
+ *  parses the new text.
+ *
+ *  Files are found by a PathGroupLoader (or CommonGroupLoader for the
+ *  CLASSPATH).  At most maxGroups are kept, least recently used first
+ *  out, and the garbage collector may clear cached groups when memory is
+ *  short.
+ *
+ *  Groups are shared so treat them as immutable: don't define templates
+ *  or register renderers on them; make a subgroup instead.
+ */
+public class CachingGroupLoader implements StringTemplateGroupLoader {
+	public static final int DEFAULT_MAX_GROUPS = 100;
+
+	protected PathGroupLoader loader;
+	protected int maxGroups;
+
+	/** Maps GroupKey to SoftReference(StringTemplateGroup), in LRU order */
+	protected Map groups;
+
+	protected int hits = 0;
+	protected int misses = 0;
+	protected int evictions = 0;
+
+	/** What makes two loads of a group the same */
+	protected static class GroupKey {
+		String name;
+		String hash;
+		Class lexer;
+		StringTemplateGroup superGroup;
+		public GroupKey(String name, String hash, Class lexer,
+						StringTemplateGroup superGroup)
+		{
+			this.name = name;
+			this.hash = hash;
+			this.lexer = lexer;
+			this.superGroup = superGroup;
+		}
+		public boolean equals(Object o) {
+			if ( !(o instanceof GroupKey) ) {
+				return false;
+			}
+			GroupKey other = (GroupKey)o;
+			return name.equals(other.name) && hash.equals(other.hash) &&
+				   lexer==other.lexer && superGroup==other.superGroup;
+		}
+		public int hashCode() {
+			return name.hashCode()*31 + hash.hashCode();
+		}
+	}
+
+	public CachingGroupLoader(PathGroupLoader loader) {
+		this(loader, DEFAULT_MAX_GROUPS);
+	}
+
+	public CachingGroupLoader(PathGroupLoader loader, final int maxGroups) {
+		this.loader = loader;
+		this.maxGroups = maxGroups;
+		groups = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if ( size()>CachingGroupLoader.this.maxGroups ) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public StringTemplateGroup loadGroup(String groupName,
+										 Class templateLexer,
+										 StringTemplateGroup superGroup)
+	{
+		String text = loader.readFile(groupName+".stg");
+		if ( text==null ) {
+			loader.error("no such group file "+groupName+".stg");
+			return null;
+		}
+		Class lexer = templateLexer;
+		if ( lexer==null ) { // group file format defaults to <...>
+			lexer = org.antlr.stringtemplate.language.AngleBracketTemplateLexer.class;
+		}
+		GroupKey key = new GroupKey(groupName, hash(text), lexer, superGroup);
+		StringTemplateGroup group = get(key);
+		if ( group!=null ) {
+			return group;
+		}
+		// parse outside the lock; if we race with another thread for
+		// the same group, the first one cached wins
+		group = new StringTemplateGroup(new StringReader(text), lexer,
+										loader.errors, superGroup);
+		if ( loader.precompileExecutor!=null ) {
+			group.precompileAll(loader.precompileExecutor, loader.warmUp);
+		}
+		synchronized (this) {
+			SoftReference ref = (SoftReference)groups.get(key);
+			StringTemplateGroup cached =
+				ref!=null ? (StringTemplateGroup)ref.get() : null;
+			if ( cached!=null ) {
+				return cached;
+			}
+			groups.put(key, new SoftReference(group));
+		}
+		return group;
+	}
+
+	public StringTemplateGroup loadGroup(String groupName,
+										 StringTemplateGroup superGroup)
+	{
+		return loadGroup(groupName, null, superGroup);
+	}
+
+	public StringTemplateGroup loadGroup(String groupName) {
+		return loadGroup(groupName, null);
+	}
+
+	/** Interfaces are small; just load them */
+	public StringTemplateGroupInterface loadInterface(String interfaceName) {
+		return loader.loadInterface(interfaceName);
+	}
+
+	/** Return the cached group for key, counting a hit or miss */
+	protected synchronized StringTemplateGroup get(GroupKey key) {
+		SoftReference ref = (SoftReference)groups.get(key);
+		StringTemplateGroup group = ref!=null ? (StringTemplateGroup)ref.get() : null;
+		if ( group!=null ) {
+			hits++;
+			return group;
+		}
+		if ( ref!=null ) { // collected
+			groups.remove(key);
+			evictions++;
+		}
+		misses++;
+		return null;
+	}
+
+	protected static String hash(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(text.getBytes("UTF-8"));
+			StringBuffer buf = new StringBuffer(digest.length*2);
+			for (int i=0; i<digest.length; i++) {
+				buf.append(Character.forDigit((digest[i]>>4)&0xF, 16));
+				buf.append(Character.forDigit(digest[i]&0xF, 16));
+			}
+			return buf.toString();
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			return text; // every JVM has SHA-1; compare the text itself
+		}
+		catch (UnsupportedEncodingException uee) {
+			return text; // every JVM has UTF-8
+		}
+	}
+
+	/** Toss out all cached groups */
+	public synchronized void clear() {
+		groups.clear();
+	}
+
+	/** How many groups are cached (some may have been collected) */
+	public synchronized int size() {
+		return groups.size();
+	}
+
+	/** How many loads returned a cached group */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/** How many loads had to parse the group file */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/** How many groups were dropped to stay under maxGroups or because the
+	 *  garbage collector cleared them
+	 */
+	public synchronized int getEvictions() {
+		return evictions;
+	}
+
+	public synchronized String toString() {
+		return "CachingGroupLoader: "+groups.size()+" groups, "+hits+" hits, "+
+			   misses+" misses, "+evictions+" evictions";
+	}
+}
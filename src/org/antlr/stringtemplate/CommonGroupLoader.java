@@ -32,11 +32,17 @@ public class CommonGroupLoader extends PathGroupLoader {
 			String dir = (String) dirs.get(i);
 			String fileName = dir+"/"+name;
 			//System.out.println("trying "+fileName);
+			// skip loaders whose index says it isn't there
 			ClassLoader cl = Thread.currentThread().getContextClassLoader();
-			InputStream is = cl.getResourceAsStream(fileName);
+			InputStream is = null;
+			if ( TemplateResourceIndex.getIndex(cl).mightContain(fileName) ) {
+				is = cl.getResourceAsStream(fileName);
+			}
 			if ( is==null ) {
 				cl = this.getClass().getClassLoader();
-				is = cl.getResourceAsStream(fileName);
+				if ( TemplateResourceIndex.getIndex(cl).mightContain(fileName) ) {
+					is = cl.getResourceAsStream(fileName);
+				}
 			}
 			if ( is!=null ) {
 				return new BufferedReader(getInputStreamReader(is));
@@ -0,0 +1,149 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.util.*;
+
+import org.antlr.stringtemplate.language.FormalArgument;
+
+/** The compiled part of a template: its pattern, the chunks it compiles
+ *  to, its formal arguments and regions.  Every instance made from a
+ *  template via getInstanceOf() points at the same CompiledTemplate.
+ *  It's frozen the first time it's shared that way and StringTemplate
+ *  copies it before changing anything, so a frozen CompiledTemplate never
+ *  changes and may be shared across threads and groups.
+ */
+public class CompiledTemplate {
+	/** The original, immutable pattern/language (not really used again after
+	 *  initial "compilation", setup/parsing).
+	 */
+	protected String pattern;
+
+	/** A list of alternating string and ASTExpr references.
+	 *  This is compiled to when the template is loaded/defined and walked to
+	 *  write out a template instance.
+	 */
+	protected List chunks;
+
+	/** When templates are defined in a group file format, the attribute
+	 *  list is provided including information about attribute cardinality
+	 *  such as present, optional, ...  When this information is available,
+	 *  rawSetAttribute should do a quick existence check as should the
+	 *  invocation of other templates.  So if you ref bold(item="foo") but
+	 *  item is not defined in bold(), then an exception should be thrown.
+	 *  When actually rendering the template, the cardinality is checked.
+	 *  This is a Map<String,FormalArgument>.
+	 */
+	protected LinkedHashMap formalArguments = FormalArgument.UNKNOWN;
+
+	/** How many formal arguments to this template have default values
+	 *  specified?
+	 */
+	protected int numberOfDefaultArgumentValues = 0;
+
+	/** If someone refs <@r()> in template t, an implicit
+	 *
+	 *   @t.r() ::= ""
+	 *
+	 *  is defined, but you can overwrite this def by defining your
+	 *  own.  We need to prevent more than one manual def though.  Between
+	 *  this var and isEmbeddedRegion we can determine these cases.
+	 */
+	protected int regionDefType;
+
+	/** Does this template come from a <@region>...<@end> embedded in
+	 *  another template?
+	 */
+	protected boolean isRegion;
+
+	/** Set of implicit and embedded regions for this template */
+	protected Set regions;
+
+	/** Set once shared by more than one StringTemplate; never unset */
+	protected boolean frozen = false;
+
+	public CompiledTemplate() {
+	}
+
+	/** A copy of from that isn't frozen.  The chunks themselves and the
+	 *  FormalArgument objects are immutable once compiled and are shared.
+	 */
+	public CompiledTemplate(CompiledTemplate from) {
+		pattern = from.pattern;
+		if ( from.chunks!=null ) {
+			chunks = new ArrayList(from.chunks);
+		}
+		if ( from.formalArguments!=FormalArgument.UNKNOWN ) {
+			formalArguments = new LinkedHashMap(from.formalArguments);
+		}
+		numberOfDefaultArgumentValues = from.numberOfDefaultArgumentValues;
+		regionDefType = from.regionDefType;
+		isRegion = from.isRegion;
+		if ( from.regions!=null ) {
+			regions = new HashSet(from.regions);
+		}
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	/** The strings and ASTExprs; don't modify */
+	public List getChunks() {
+		return chunks;
+	}
+
+	/** Map<String,FormalArgument>; don't modify */
+	public Map getFormalArguments() {
+		return formalArguments;
+	}
+
+	public int getNumberOfDefaultArgumentValues() {
+		return numberOfDefaultArgumentValues;
+	}
+
+	public Set getRegionNames() {
+		return regions;
+	}
+
+	public boolean isRegion() {
+		return isRegion;
+	}
+
+	public int getRegionDefType() {
+		return regionDefType;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	public void freeze() {
+		frozen = true;
+	}
+}
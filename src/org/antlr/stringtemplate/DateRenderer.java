@@ -0,0 +1,111 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/** Renders Dates and Calendars.  format="..." is "short", "medium",
+ *  "long" or "full" for date and time, the same prefixed with "date:" or
+ *  "time:" for just one of them, or a SimpleDateFormat pattern.  With no
+ *  format, "short" is used.  Patterns are parsed once per locale; see
+ *  FormatCache.
+ */
+public class DateRenderer implements AttributeRenderer {
+	protected static final FormatCache.FormatFactory factory =
+		new FormatCache.FormatFactory() {
+			public Format createFormat(String format, Locale locale) {
+				if ( format.startsWith("date:") ) {
+					int style = getStyle(format.substring(5));
+					if ( style>=0 ) {
+						return DateFormat.getDateInstance(style, locale);
+					}
+				}
+				else if ( format.startsWith("time:") ) {
+					int style = getStyle(format.substring(5));
+					if ( style>=0 ) {
+						return DateFormat.getTimeInstance(style, locale);
+					}
+				}
+				else {
+					int style = getStyle(format);
+					if ( style>=0 ) {
+						return DateFormat.getDateTimeInstance(style, style, locale);
+					}
+				}
+				try {
+					return new SimpleDateFormat(format, locale);
+				}
+				catch (IllegalArgumentException iae) {
+					return null; // not a pattern
+				}
+			}
+		};
+
+	protected static int getStyle(String name) {
+		if ( name.equals("short") ) return DateFormat.SHORT;
+		if ( name.equals("medium") ) return DateFormat.MEDIUM;
+		if ( name.equals("long") ) return DateFormat.LONG;
+		if ( name.equals("full") ) return DateFormat.FULL;
+		return -1;
+	}
+
+	/** Null means the RenderContext's locale or the default */
+	protected Locale locale;
+
+	public DateRenderer() {
+	}
+
+	public DateRenderer(Locale locale) {
+		this.locale = locale;
+	}
+
+	public String toString(Object o) {
+		return toString(o, "short");
+	}
+
+	public String toString(Object o, String formatName) {
+		if ( o instanceof Calendar ) {
+			o = ((Calendar)o).getTime();
+		}
+		if ( !(o instanceof Date) ) {
+			return o.toString();
+		}
+		FormatCache.CompiledFormat f =
+			FormatCache.getFormat(DateRenderer.class, formatName,
+								  FormatCache.getLocale(locale), factory);
+		if ( f==null ) {
+			return o.toString();
+		}
+		return f.format(o);
+	}
+}
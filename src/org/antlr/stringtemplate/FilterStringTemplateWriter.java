@@ -0,0 +1,90 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.IOException;
+
+/** A StringTemplateWriter that passes everything through to another
+ *  writer.  Subclasses override filter() to transform the text of
+ *  literals, expression values and separators on their way out.
+ *  Indentation, anchors, line width and wrap strings are delegated
+ *  untouched so the filtered output is laid out exactly like unfiltered
+ *  output would be.
+ */
+public class FilterStringTemplateWriter implements StringTemplateWriter {
+	protected StringTemplateWriter out;
+
+	public FilterStringTemplateWriter(StringTemplateWriter out) {
+		this.out = out;
+	}
+
+	/** Transform a chunk of text.  Chunks arrive in output order but
+	 *  are split at arbitrary points (each literal, attribute value and
+	 *  separator is a separate chunk) so only char-local transformations
+	 *  should be done here.
+	 */
+	protected String filter(String str) {
+		return str;
+	}
+
+	public void pushIndentation(String indent) {
+		out.pushIndentation(indent);
+	}
+
+	public String popIndentation() {
+		return out.popIndentation();
+	}
+
+	public void pushAnchorPoint() {
+		out.pushAnchorPoint();
+	}
+
+	public void popAnchorPoint() {
+		out.popAnchorPoint();
+	}
+
+	public void setLineWidth(int lineWidth) {
+		out.setLineWidth(lineWidth);
+	}
+
+	public int write(String str) throws IOException {
+		return out.write(filter(str));
+	}
+
+	public int write(String str, String wrap) throws IOException {
+		return out.write(filter(str), wrap);
+	}
+
+	public int writeWrapSeparator(String wrap) throws IOException {
+		return out.writeWrapSeparator(wrap);
+	}
+
+	public int writeSeparator(String str) throws IOException {
+		return out.writeSeparator(filter(str));
+	}
+}
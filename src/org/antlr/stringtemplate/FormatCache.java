@@ -0,0 +1,153 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.text.Format;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A bounded, JVM-wide cache of java.text formatters for the built-in
+ *  renderers (NumberRenderer, DateRenderer), keyed by (renderer class,
+ *  format string, locale), so each distinct format="..." is parsed once.
+ *  java.text formatters aren't thread safe; a CompiledFormat keeps the
+ *  parsed one as a prototype and formats with a per-thread clone.
+ */
+public class FormatCache {
+	public static final int DEFAULT_MAX_FORMATS = 512;
+
+	/** Builds the Format for a format string; returns null if it's not
+	 *  one the renderer understands.
+	 */
+	public interface FormatFactory {
+		public Format createFormat(String format, Locale locale);
+	}
+
+	/** A parsed format, safe to use from any thread */
+	public static class CompiledFormat {
+		protected final Format prototype;
+		protected final ThreadLocal perThread = new ThreadLocal();
+
+		public CompiledFormat(Format prototype) {
+			this.prototype = prototype;
+		}
+
+		public String format(Object o) {
+			Format f = (Format)perThread.get();
+			if ( f==null ) {
+				f = (Format)prototype.clone();
+				perThread.set(f);
+			}
+			return f.format(o);
+		}
+
+		public Format getPrototype() {
+			return prototype;
+		}
+	}
+
+	protected static class Key {
+		Class type;
+		String format;
+		Locale locale;
+		int hash;
+		public Key(Class type, String format, Locale locale) {
+			this.type = type;
+			this.format = format;
+			this.locale = locale;
+			hash = (type.hashCode()*31 + format.hashCode())*31 + locale.hashCode();
+		}
+		public boolean equals(Object o) {
+			if ( !(o instanceof Key) ) {
+				return false;
+			}
+			Key other = (Key)o;
+			return type==other.type && format.equals(other.format) &&
+				   locale.equals(other.locale);
+		}
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/** Cached for format strings the factory rejected */
+	protected static final CompiledFormat UNKNOWN_FORMAT = new CompiledFormat(null);
+
+	protected static int maxFormats = DEFAULT_MAX_FORMATS;
+
+	protected static final Map formats = new ConcurrentHashMap();
+
+	/** Get the CompiledFormat for format in locale, asking factory to make
+	 *  it the first time.  Returns null if factory doesn't know format.
+	 */
+	public static CompiledFormat getFormat(Class type, String format,
+										   Locale locale,
+										   FormatFactory factory)
+	{
+		Key key = new Key(type, format, locale);
+		CompiledFormat f = (CompiledFormat)formats.get(key);
+		if ( f==null ) {
+			Format prototype = factory.createFormat(format, locale);
+			f = prototype!=null ? new CompiledFormat(prototype) : UNKNOWN_FORMAT;
+			if ( formats.size()>=maxFormats ) {
+				// make room; any entry will do, it's just parsed again
+				Iterator it = formats.keySet().iterator();
+				if ( it.hasNext() ) {
+					it.next();
+					it.remove();
+				}
+			}
+			formats.put(key, f);
+		}
+		return f==UNKNOWN_FORMAT ? null : f;
+	}
+
+	/** The locale to format in: the RenderContext's if rendering with
+	 *  one, else locale if not null, else the default.
+	 */
+	public static Locale getLocale(Locale locale) {
+		RenderContext context = RenderContext.getCurrent();
+		if ( context!=null && context.getLocale()!=null ) {
+			return context.getLocale();
+		}
+		return locale!=null ? locale : Locale.getDefault();
+	}
+
+	public static void setMaxFormats(int max) {
+		maxFormats = max;
+	}
+
+	public static int size() {
+		return formats.size();
+	}
+
+	public static void clear() {
+		formats.clear();
+	}
+}
@@ -0,0 +1,474 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/** A read-only Map<String,String> kept in a file and memory mapped, for
+ *  lookup tables too big to hold on the heap.  Pass it to
+ *  StringTemplateGroup.defineMap() or as an attribute; <table.(key)>
+ *  hashes the key and reads just the matching entry from the file, so
+ *  heap use doesn't depend on the size of the table.  Build files with
+ *  MemoryMappedMap.Builder.  Files are limited to 2GB.
+ *
+ *  File layout, all ints big endian:
+ *
+ *    magic version size buckets
+ *    bucketStart[buckets+1]   index into slots of each bucket's first slot
+ *    slots[size]              offset of each entry in the data section
+ *    data: entries of hash keyLength keyUTF8 valueLength valueUTF8
+ */
+public class MemoryMappedMap extends AbstractMap {
+	public static final int MAGIC = 0x53544d4d; // "STMM"
+	public static final int VERSION = 1;
+	protected static final int HEADER_SIZE = 16;
+
+	protected final MappedByteBuffer buffer;
+	protected final int size;
+	protected final int buckets;
+	protected final int slotsStart;
+	protected final int dataStart;
+
+	public MemoryMappedMap(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if ( channel.size()>Integer.MAX_VALUE ) {
+				throw new IOException(file+" is bigger than 2GB");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			raf.close(); // the mapping stays valid
+		}
+		if ( buffer.capacity()<HEADER_SIZE || buffer.getInt(0)!=MAGIC ) {
+			throw new IOException(file+" is not a MemoryMappedMap file");
+		}
+		if ( buffer.getInt(4)!=VERSION ) {
+			throw new IOException(file+" has unknown version "+buffer.getInt(4));
+		}
+		size = buffer.getInt(8);
+		buckets = buffer.getInt(12);
+		slotsStart = HEADER_SIZE + 4*(buckets+1);
+		dataStart = slotsStart + 4*size;
+	}
+
+	protected static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException(uee); // UTF-8 is always there
+		}
+	}
+
+	protected static int bucketOf(int hash, int buckets) {
+		return (hash & 0x7fffffff) % buckets;
+	}
+
+	/** Offset of key's entry in the file or -1 */
+	protected int find(String key) {
+		if ( size==0 ) {
+			return -1;
+		}
+		int hash = key.hashCode();
+		int b = bucketOf(hash, buckets);
+		int first = buffer.getInt(HEADER_SIZE + 4*b);
+		int last = buffer.getInt(HEADER_SIZE + 4*(b+1));
+		byte[] keyBytes = null;
+		for (int s = first; s < last; s++) {
+			int e = dataStart + buffer.getInt(slotsStart + 4*s);
+			if ( buffer.getInt(e)!=hash ) {
+				continue;
+			}
+			if ( keyBytes==null ) {
+				keyBytes = utf8(key);
+			}
+			if ( sameBytes(e+8, buffer.getInt(e+4), keyBytes) ) {
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	protected boolean sameBytes(int p, int n, byte[] bytes) {
+		if ( n!=bytes.length ) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if ( buffer.get(p+i)!=bytes[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected String readString(int p) {
+		int n = buffer.getInt(p);
+		byte[] bytes = new byte[n];
+		for (int i = 0; i < n; i++) {
+			bytes[i] = buffer.get(p+4+i);
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new RuntimeException(uee);
+		}
+	}
+
+	protected String readKey(int e) {
+		return readString(e+4);
+	}
+
+	protected String readValue(int e) {
+		return readString(e+8+buffer.getInt(e+4));
+	}
+
+	public Object get(Object key) {
+		if ( !(key instanceof String) ) {
+			return null;
+		}
+		int e = find((String)key);
+		return e>=0 ? readValue(e) : null;
+	}
+
+	public boolean containsKey(Object key) {
+		return key instanceof String && find((String)key)>=0;
+	}
+
+	/** Resolve <table.(property)> with one probe, falling back on the
+	 *  _default_ entry like any other Map.
+	 */
+	public Object lookup(Object property) {
+		int e = find(property.toString());
+		if ( e<0 ) {
+			e = find(org.antlr.stringtemplate.language.ASTExpr.DEFAULT_MAP_VALUE_NAME);
+		}
+		return e>=0 ? readValue(e) : null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Entries are read from the file as you iterate */
+	public Set entrySet() {
+		return new AbstractSet() {
+			public int size() {
+				return size;
+			}
+			public Iterator iterator() {
+				return new Iterator() {
+					int s = 0;
+					public boolean hasNext() {
+						return s<size;
+					}
+					public Object next() {
+						if ( s>=size ) {
+							throw new NoSuchElementException();
+						}
+						int e = dataStart + buffer.getInt(slotsStart + 4*s++);
+						Map.Entry entry =
+							new SimpleImmutableEntry(readKey(e), readValue(e));
+						return entry;
+					}
+					public void remove() {
+						throw new UnsupportedOperationException("read-only map");
+					}
+				};
+			}
+		};
+	}
+
+	protected static class SimpleImmutableEntry implements Map.Entry {
+		Object key;
+		Object value;
+		public SimpleImmutableEntry(Object key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+		public Object getKey() {
+			return key;
+		}
+		public Object getValue() {
+			return value;
+		}
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException("read-only map");
+		}
+		public boolean equals(Object o) {
+			if ( !(o instanceof Map.Entry) ) {
+				return false;
+			}
+			Map.Entry e = (Map.Entry)o;
+			return key.equals(e.getKey()) && value.equals(e.getValue());
+		}
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+		public String toString() {
+			return key+"="+value;
+		}
+	}
+
+	/** Writes a MemoryMappedMap file.  Entries are streamed to a temp
+	 *  file as you put() them, remembering only their hash and offset (8
+	 *  bytes of heap per entry); close() needs another 8 per entry to
+	 *  build the index.  If a key is put more than once the last value
+	 *  wins.  From the command line, converts a file of tab-separated
+	 *  key/value lines:
+	 *
+	 *    java org.antlr.stringtemplate.MemoryMappedMap$Builder in.tsv out.map
+	 */
+	public static class Builder {
+		protected File file;
+		protected File dataFile;
+		protected DataOutputStream data;
+		protected int dataSize = 0;
+		protected int[] hashes = new int[1024];
+		protected int[] offsets = new int[1024];
+		protected int size = 0;
+
+		public Builder(File file) throws IOException {
+			this.file = file;
+			dataFile = File.createTempFile("stmap", ".data",
+										   file.getAbsoluteFile().getParentFile());
+			data = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(dataFile)));
+		}
+
+		public void put(String key, String value) throws IOException {
+			if ( size==hashes.length ) {
+				int[] h = new int[size*2];
+				int[] o = new int[size*2];
+				System.arraycopy(hashes, 0, h, 0, size);
+				System.arraycopy(offsets, 0, o, 0, size);
+				hashes = h;
+				offsets = o;
+			}
+			byte[] k = utf8(key);
+			byte[] v = utf8(value);
+			long entrySize = 12L + k.length + v.length;
+			long fileSize = HEADER_SIZE + 8L*(size+2) + dataSize + entrySize;
+			if ( fileSize>Integer.MAX_VALUE ) {
+				throw new IOException("map too big for one file");
+			}
+			hashes[size] = key.hashCode();
+			offsets[size] = dataSize;
+			size++;
+			data.writeInt(key.hashCode());
+			data.writeInt(k.length);
+			data.write(k);
+			data.writeInt(v.length);
+			data.write(v);
+			dataSize += (int)entrySize;
+		}
+
+		public void putAll(Map m) throws IOException {
+			Iterator it = m.entrySet().iterator();
+			while ( it.hasNext() ) {
+				Map.Entry e = (Map.Entry)it.next();
+				put(e.getKey().toString(), e.getValue().toString());
+			}
+		}
+
+		/** Write the index and data to the file and delete the temp file.
+		 *  If that fails, no file is left behind.
+		 */
+		public void close() throws IOException {
+			data.close();
+			int buckets = Math.max(1, size);
+			// stable counting sort of entry indexes by bucket; afterwards
+			// bucketStart[b] is the first slot of bucket b
+			int[] bucketStart = new int[buckets+1];
+			for (int i = 0; i < size; i++) {
+				bucketStart[bucketOf(hashes[i], buckets)]++;
+			}
+			for (int b = 1; b <= buckets; b++) {
+				bucketStart[b] += bucketStart[b-1];
+			}
+			int[] slots = new int[size];
+			for (int i = size-1; i >= 0; i--) {
+				slots[--bucketStart[bucketOf(hashes[i], buckets)]] = i;
+			}
+			boolean ok = false;
+			try {
+				int live = dropDuplicateKeys(bucketStart, slots, buckets);
+				writeFile(bucketStart, slots, buckets, live);
+				ok = true;
+			}
+			finally {
+				hashes = null;
+				offsets = null;
+				dataFile.delete();
+				if ( !ok ) {
+					file.delete();
+				}
+			}
+		}
+
+		/** Discard everything put so far without writing the file */
+		public void abort() {
+			try {
+				data.close();
+			}
+			catch (IOException ioe) {
+				// deleting it anyway
+			}
+			dataFile.delete();
+		}
+
+		/** Remove all but the last entry for each key from slots, which
+		 *  holds entry indexes by bucket, and fix up bucketStart.  Keys are
+		 *  only read back from the temp file when their hashes collide.
+		 *  Returns the number of entries left.
+		 */
+		protected int dropDuplicateKeys(int[] bucketStart, int[] slots, int buckets)
+			throws IOException
+		{
+			RandomAccessFile raf = null;
+			try {
+				for (int b = 0; b < buckets; b++) {
+					for (int j = bucketStart[b]; j < bucketStart[b+1]; j++) {
+						for (int k = j+1; k < bucketStart[b+1]; k++) {
+							int x = slots[j], y = slots[k];
+							if ( hashes[x]!=hashes[y] || offsets[y]<0 ) {
+								continue;
+							}
+							if ( raf==null ) {
+								raf = new RandomAccessFile(dataFile, "r");
+							}
+							if ( Arrays.equals(readKey(raf, offsets[x]),
+											   readKey(raf, offsets[y])) )
+							{
+								offsets[x] = -1; // y came later; it wins
+								break;
+							}
+						}
+					}
+				}
+			}
+			finally {
+				if ( raf!=null ) {
+					raf.close();
+				}
+			}
+			int w = 0;
+			for (int b = 0; b < buckets; b++) {
+				int end = bucketStart[b+1];
+				int s = bucketStart[b];
+				bucketStart[b] = w;
+				for (; s < end; s++) {
+					if ( offsets[slots[s]]>=0 ) {
+						slots[w++] = slots[s];
+					}
+				}
+			}
+			bucketStart[buckets] = w;
+			return w;
+		}
+
+		protected static byte[] readKey(RandomAccessFile raf, int offset)
+			throws IOException
+		{
+			raf.seek(offset+4);
+			byte[] key = new byte[raf.readInt()];
+			raf.readFully(key);
+			return key;
+		}
+
+		protected void writeFile(int[] bucketStart, int[] slots, int buckets, int live)
+			throws IOException
+		{
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(live);
+				out.writeInt(buckets);
+				for (int b = 0; b <= buckets; b++) {
+					out.writeInt(bucketStart[b]);
+				}
+				for (int i = 0; i < live; i++) {
+					out.writeInt(offsets[slots[i]]);
+				}
+				InputStream in = new BufferedInputStream(new FileInputStream(dataFile));
+				try {
+					byte[] buf = new byte[8192];
+					int n;
+					while ( (n=in.read(buf))>0 ) {
+						out.write(buf, 0, n);
+					}
+				}
+				finally {
+					in.close();
+				}
+			}
+			finally {
+				out.close();
+			}
+		}
+
+		public static void main(String[] args) throws IOException {
+			if ( args.length!=2 ) {
+				System.err.println("usage: java org.antlr.stringtemplate.MemoryMappedMap$Builder in.tsv out.map");
+				System.exit(1);
+			}
+			BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+			File out = new File(args[1]);
+			Builder builder = new Builder(out);
+			boolean read = false;
+			try {
+				String line;
+				while ( (line=in.readLine())!=null ) {
+					int tab = line.indexOf('\t');
+					if ( tab<0 ) {
+						continue;
+					}
+					builder.put(line.substring(0,tab), line.substring(tab+1));
+				}
+				read = true;
+			}
+			finally {
+				in.close();
+				if ( !read ) {
+					// don't leave a truncated or stale table behind
+					builder.abort();
+					out.delete();
+				}
+			}
+			builder.close();
+		}
+	}
+}
@@ -40,4 +40,9 @@ public class NoIndentWriter extends AutoIndentWriter {
 	    out.write(str);
 		return str.length();
     }
+
+	protected int writeDigits(char[] buf, int off, int len) throws IOException {
+		out.write(buf, off, len);
+		return len;
+	}
 }
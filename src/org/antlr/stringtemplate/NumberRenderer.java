@@ -0,0 +1,94 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/** Renders Numbers with format="...": "integer", "number", "percent",
+ *  "currency" or a DecimalFormat pattern such as "#,##0.00".  Patterns
+ *  are parsed once per locale; see FormatCache.  Unknown formats fall
+ *  back to toString().  Register it for Number.class to cover all
+ *  numeric types.
+ */
+public class NumberRenderer implements AttributeRenderer {
+	protected static final FormatCache.FormatFactory factory =
+		new FormatCache.FormatFactory() {
+			public Format createFormat(String format, Locale locale) {
+				if ( format.equals("integer") ) {
+					return NumberFormat.getIntegerInstance(locale);
+				}
+				if ( format.equals("number") ) {
+					return NumberFormat.getNumberInstance(locale);
+				}
+				if ( format.equals("percent") ) {
+					return NumberFormat.getPercentInstance(locale);
+				}
+				if ( format.equals("currency") ) {
+					return NumberFormat.getCurrencyInstance(locale);
+				}
+				if ( format.indexOf('0')<0 && format.indexOf('#')<0 ) {
+					return null; // DecimalFormat would take it as a prefix
+				}
+				try {
+					return new DecimalFormat(format,
+											 new DecimalFormatSymbols(locale));
+				}
+				catch (IllegalArgumentException iae) {
+					return null; // not a pattern
+				}
+			}
+		};
+
+	/** Null means the RenderContext's locale or the default */
+	protected Locale locale;
+
+	public NumberRenderer() {
+	}
+
+	public NumberRenderer(Locale locale) {
+		this.locale = locale;
+	}
+
+	public String toString(Object o) {
+		return o.toString();
+	}
+
+	public String toString(Object o, String formatName) {
+		FormatCache.CompiledFormat f =
+			FormatCache.getFormat(NumberRenderer.class, formatName,
+								  FormatCache.getLocale(locale), factory);
+		if ( f==null || !(o instanceof Number) ) {
+			return toString(o);
+		}
+		return f.format(o);
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import antlr.Token;
+import antlr.TokenStreamException;
+import org.antlr.stringtemplate.language.AngleBracketTemplateLexer;
+import org.antlr.stringtemplate.language.GroupLexer;
+import org.antlr.stringtemplate.language.GroupParserTokenTypes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/** A PathGroupLoader that, before building a group, reads just the
+ *  headers of the group and its supergroups ("group X : Y implements
+ *  I1, I2;") to find everything it depends on.  As each file is found,
+ *  its full text is read on an Executor, and so are the .sti interfaces,
+ *  which are parsed there too.  Interfaces are registered by name so
+ *  implementInterface() finds them without loading them again.
+ *
+ *  Only the parse of the supergroup chain is ordered, root first: a
+ *  group's region definitions (@t.r() ::= ...) must see the templates
+ *  of its supergroup while the group file is being parsed.
+ */
+public class ParallelGroupLoader extends PathGroupLoader {
+	protected Executor executor;
+
+	/** How many chars of a group file to read at a time looking for
+	 *  the end of its header.
+	 */
+	protected static final int HEADER_CHUNK_SIZE = 1024;
+
+	/** What a group file header says */
+	protected static class GroupHeader {
+		String superGroupName;
+		List interfaceNames = new ArrayList();
+		/** False if the text ended before the header did */
+		boolean complete = false;
+	}
+
+	public ParallelGroupLoader(String dirStr,
+							   StringTemplateErrorListener errors,
+							   Executor executor)
+	{
+		super(dirStr, errors);
+		this.executor = executor;
+	}
+
+	public StringTemplateGroup loadGroup(String groupName,
+										 Class templateLexer,
+										 StringTemplateGroup superGroup)
+	{
+		Class lexer = AngleBracketTemplateLexer.class;
+		if ( templateLexer!=null ) {
+			lexer = templateLexer;
+		}
+		// walk up the supergroup chain reading headers; start reading
+		// group files and parsing interfaces as soon as we hear about them
+		List names = new ArrayList();   // group X, its super, ...
+		List textTasks = new ArrayList();
+		Map interfaceTasks = new LinkedHashMap();
+		String name = groupName;
+		while ( name!=null ) {
+			if ( names.contains(name) ) {
+				error("cycle in supergroup chain: "+names+" -> "+name);
+				return null;
+			}
+			GroupHeader header = readHeaderOf(name+".stg");
+			if ( header==null ) {
+				if ( names.size()==0 ) {
+					error("no such group file "+name+".stg");
+					return null;
+				}
+				break; // the subgroup's parser will report it
+			}
+			names.add(name);
+			textTasks.add(readFileInBackground(name+".stg"));
+			for (int i=0; i<header.interfaceNames.size(); i++) {
+				String iname = (String)header.interfaceNames.get(i);
+				if ( !interfaceTasks.containsKey(iname) &&
+					 StringTemplateGroup.nameToInterfaceMap.get(iname)==null )
+				{
+					interfaceTasks.put(iname, loadInterfaceInBackground(iname));
+				}
+			}
+			name = header.superGroupName;
+			if ( (names.size()==1 && superGroup!=null) ||
+				 (name!=null && StringTemplateGroup.nameToGroupMap.get(name)!=null) )
+			{
+				break; // already have the rest of the chain
+			}
+		}
+		// wait for the interfaces and register them so implementInterface()
+		// finds them
+		Iterator it = interfaceTasks.keySet().iterator();
+		while ( it.hasNext() ) {
+			String iname = (String)it.next();
+			StringTemplateGroupInterface I =
+				(StringTemplateGroupInterface)get((FutureTask)interfaceTasks.get(iname));
+			if ( I!=null ) {
+				StringTemplateGroup.nameToInterfaceMap.put(iname, I);
+			}
+		}
+		// parse root first; each group registers itself by name so its
+		// subgroup finds it
+		StringTemplateGroup group = null;
+		for (int i=names.size()-1; i>=0; i--) {
+			String text = (String)get((FutureTask)textTasks.get(i));
+			if ( text==null ) {
+				if ( i==0 ) {
+					error("can't load group "+groupName);
+					return null;
+				}
+				continue; // the subgroup's parser will report it
+			}
+			StringTemplateGroup sg = i==0 ? superGroup : null;
+			group = new StringTemplateGroup(new StringReader(text),
+											lexer, errors, sg);
+		}
+		if ( precompileExecutor!=null ) {
+			group.precompileAll(precompileExecutor, warmUp);
+		}
+		return group;
+	}
+
+	protected FutureTask loadInterfaceInBackground(final String interfaceName) {
+		FutureTask task = new FutureTask(new Callable() {
+			public Object call() {
+				return loadInterface(interfaceName);
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	protected FutureTask readFileInBackground(final String fileName) {
+		FutureTask task = new FutureTask(new Callable() {
+			public Object call() {
+				return readFile(fileName);
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	protected Object get(FutureTask task) {
+		try {
+			return task.get();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ee) {
+			error("can't load group or interface file", ee);
+		}
+		return null;
+	}
+
+	/** Read only as much of group file fileName as it takes to get its
+	 *  header; null if there's no such file.
+	 */
+	protected GroupHeader readHeaderOf(String fileName) {
+		File file = null;
+		for (int i=0; file==null && i<dirs.size(); i++) {
+			File f = new File((String)dirs.get(i), fileName);
+			if ( f.exists() ) {
+				file = f;
+			}
+		}
+		if ( file==null ) {
+			return null;
+		}
+		Reader r = null;
+		try {
+			r = getInputStreamReader(new FileInputStream(file));
+			if ( r==null ) {
+				return null;
+			}
+			StringBuffer buf = new StringBuffer();
+			char[] chars = new char[HEADER_CHUNK_SIZE];
+			int n;
+			while ( (n=r.read(chars))>=0 ) {
+				buf.append(chars, 0, n);
+				GroupHeader header = readHeader(buf.toString());
+				if ( header.complete ) {
+					return header;
+				}
+			}
+			return readHeader(buf.toString());
+		}
+		catch (IOException ioe) {
+			error("can't load file "+fileName, ioe);
+			return null;
+		}
+		finally {
+			if ( r!=null ) {
+				try {
+					r.close();
+				}
+				catch (IOException ioe2) {
+					error("Cannot close file: "+fileName, ioe2);
+				}
+			}
+		}
+	}
+
+	/** Pull the supergroup and interface names out of the group header;
+	 *  the rest of the file isn't looked at.
+	 */
+	protected GroupHeader readHeader(String text) {
+		GroupHeader header = new GroupHeader();
+		GroupLexer lexer = new GroupLexer(new StringReader(text));
+		try {
+			Token t = lexer.nextToken();
+			if ( t.getType()!=GroupParserTokenTypes.LITERAL_group ) {
+				header.complete = isWholeToken(t, lexer);
+				return header;
+			}
+			lexer.nextToken(); // group name
+			t = lexer.nextToken();
+			if ( t.getType()==GroupParserTokenTypes.COLON ) {
+				header.superGroupName = lexer.nextToken().getText();
+				t = lexer.nextToken();
+			}
+			if ( t.getType()==GroupParserTokenTypes.LITERAL_implements ) {
+				do {
+					header.interfaceNames.add(lexer.nextToken().getText());
+					t = lexer.nextToken();
+				} while ( t.getType()==GroupParserTokenTypes.COMMA );
+			}
+			header.complete = t.getType()==GroupParserTokenTypes.SEMI ||
+							  isWholeToken(t, lexer);
+		}
+		catch (TokenStreamException tse) {
+			// let the real parse report syntax errors
+		}
+		return header;
+	}
+
+	/** Is t followed by something, so it isn't cut off by the end of a
+	 *  partially read file?
+	 */
+	protected boolean isWholeToken(Token t, GroupLexer lexer)
+		throws TokenStreamException
+	{
+		return t.getType()!=Token.EOF_TYPE &&
+			   lexer.nextToken().getType()!=Token.EOF_TYPE;
+	}
+}
@@ -1,11 +1,14 @@
 package org.antlr.stringtemplate;
 
 import org.antlr.stringtemplate.language.AngleBracketTemplateLexer;
+import org.antlr.stringtemplate.language.CharBufferReader;
 
 import java.io.*;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 
 /** A brain dead loader that looks only in the directory(ies) you
  *  specify in the ctor.
@@ -24,6 +27,10 @@ public class PathGroupLoader implements StringTemplateGroupLoader {
 	 */
 	String fileCharEncoding = System.getProperty("file.encoding");
 
+	/** If not null, precompileAll() each group we load on this */
+	protected Executor precompileExecutor = null;
+	protected boolean warmUp = false;
+
 	public PathGroupLoader(StringTemplateErrorListener errors) {
 		this.errors = errors;
 	}
@@ -43,6 +50,14 @@ public class PathGroupLoader implements StringTemplateGroupLoader {
 		}
 	}
 
+	/** Set this to precompile (and optionally warm up) every group as it
+	 *  is loaded; see StringTemplateGroup.precompileAll().
+	 */
+	public void setPrecompileExecutor(Executor executor, boolean warmUp) {
+		this.precompileExecutor = executor;
+		this.warmUp = warmUp;
+	}
+
 	/** Load a group with a specified superGroup.  Groups with
 	 *  region definitions must know their supergroup to find templates
 	 *  during parsing.
@@ -67,6 +82,9 @@ public class PathGroupLoader implements StringTemplateGroupLoader {
 			group = new StringTemplateGroup(br, lexer, errors, superGroup);
 			br.close();
 			br = null;
+			if ( precompileExecutor!=null ) {
+				group.precompileAll(precompileExecutor, warmUp);
+			}
 		}
 		catch (IOException ioe) {
 			error("can't load group "+groupName, ioe);
@@ -110,15 +128,56 @@ public class PathGroupLoader implements StringTemplateGroupLoader {
 		return I;
 	}
 
+	/** Return the whole text of the file called 'name' found by locate()
+	 *  or null if there's no such file.
+	 */
+	protected String readFile(String name) {
+		BufferedReader br = null;
+		try {
+			br = locate(name);
+			if ( br==null ) {
+				return null;
+			}
+			StringBuffer buf = new StringBuffer();
+			char[] chars = new char[8192];
+			int n;
+			while ( (n=br.read(chars))>=0 ) {
+				buf.append(chars, 0, n);
+			}
+			return buf.toString();
+		}
+		catch (IOException ioe) {
+			error("can't load file "+name, ioe);
+			return null;
+		}
+		finally {
+			if ( br!=null ) {
+				try {
+					br.close();
+				}
+				catch (IOException ioe2) {
+					error("Cannot close file: "+name, ioe2);
+				}
+			}
+		}
+	}
+
 	/** Look in each directory for the file called 'name'. */
 	protected BufferedReader locate(String name) throws IOException {
 		for (int i = 0; i < dirs.size(); i++) {
 			String dir = (String) dirs.get(i);
 			String fileName = dir+"/"+name;
 			if ( new File(fileName).exists() ) {
-				FileInputStream fis = new FileInputStream(fileName);
-				InputStreamReader isr = getInputStreamReader(fis);
-				return new BufferedReader(isr);
+				// decode whole file at once; mapped if it's big
+				CharBuffer text;
+				try {
+					text = CharBufferReader.decode(new File(fileName), fileCharEncoding);
+				}
+				catch (IllegalArgumentException iae) {
+					error("Invalid file character encoding: "+fileCharEncoding);
+					return null;
+				}
+				return new BufferedReader(new CharBufferReader(text));
 			}
 		}
 		return null;
@@ -0,0 +1,212 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/** A Writer that hands filled char segments to a background thread that
+ *  does the real (slow) writing.  Template evaluation (reflection, attribute
+ *  lookups) then overlaps with encoding and disk or network I/O on another
+ *  core.  The queue between the two is bounded so a slow device pushes
+ *  back on the renderer rather than letting output pile up in memory.
+ *
+ *  Wrap your writer and use it like any other:
+ *
+ *  Writer w = new PipelinedWriter(new OutputStreamWriter(...));
+ *  st.write(group.getStringTemplateWriter(w));
+ *  w.close();
+ *
+ *  Not thread safe; one renderer writes to it.  Anything thrown by the
+ *  underlying writer in the background thread is rethrown, as the cause
+ *  of an IOException, by the next write(), flush() or close().
+ *  You must close() (or at least flush()) to get all output written.
+ */
+public class PipelinedWriter extends SegmentedWriter {
+	public static final int DEFAULT_SEGMENT_SIZE = 8192;
+	public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+	/** Tells the I/O thread to stop after what's already queued */
+	private static final Segment STOP = new Segment(null, 0, null);
+
+	/** Where the background thread sends output */
+	protected Writer out;
+
+	/** Segments waiting to be written; bounded for backpressure */
+	protected BlockingQueue filled;
+
+	protected Thread io = null;
+
+	protected boolean closed = false;
+
+	/** First error seen by the I/O thread */
+	protected volatile Throwable failure = null;
+
+	public PipelinedWriter(Writer out) {
+		this(out, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+	}
+
+	public PipelinedWriter(Writer out, int segmentSize, int maxSegments) {
+		super(segmentSize, newSegmentQueue(segmentSize, maxSegments));
+		this.out = out;
+		this.filled = new ArrayBlockingQueue(maxSegments);
+	}
+
+	/** Send any partial segment and wait until the background thread
+	 *  has written and flushed everything so far.
+	 */
+	public void flush() throws IOException {
+		ensureOpen();
+		sendPartial();
+		if ( io==null ) { // nothing ever handed off
+			out.flush();
+			return;
+		}
+		CountDownLatch done = new CountDownLatch(1);
+		send(new Segment(null, 0, done));
+		try {
+			done.await();
+		}
+		catch (InterruptedException ie) {
+			throw new InterruptedIOException("interrupted waiting for flush");
+		}
+		checkFailure();
+	}
+
+	/** Write everything, stop the background thread, and close the
+	 *  underlying writer.
+	 */
+	public void close() throws IOException {
+		if ( closed ) {
+			return;
+		}
+		try {
+			flush();
+		}
+		finally {
+			closed = true;
+			if ( io!=null ) {
+				try {
+					filled.put(STOP);
+					io.join();
+				}
+				catch (InterruptedException ie) {
+					io.interrupt();
+				}
+			}
+			out.close();
+		}
+		checkFailure();
+	}
+
+	protected void nextBuffer() throws IOException {
+		ensureOpen();
+		super.nextBuffer();
+	}
+
+	protected void send(char[] buf, int n) throws IOException {
+		send(new Segment(buf, n, null));
+	}
+
+	private void send(Segment s) throws IOException {
+		checkFailure();
+		if ( io==null ) {
+			startIO();
+		}
+		try {
+			filled.put(s); // blocks when the I/O thread falls behind
+		}
+		catch (InterruptedException ie) {
+			throw new InterruptedIOException("interrupted handing off output");
+		}
+	}
+
+	protected void startIO() {
+		io = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "StringTemplate pipelined writer");
+		io.setDaemon(true);
+		io.start();
+	}
+
+	/** Executed in the background thread */
+	protected void drain() {
+		while ( true ) {
+			Segment s;
+			try {
+				s = (Segment)filled.take();
+			}
+			catch (InterruptedException ie) {
+				return;
+			}
+			if ( s==STOP ) {
+				return;
+			}
+			try {
+				if ( failure==null ) {
+					if ( s.buf!=null ) {
+						out.write(s.buf, 0, s.n);
+					}
+					else {
+						out.flush();
+					}
+				}
+			}
+			catch (Throwable t) {
+				failure = t; // keep draining so the renderer never blocks
+			}
+			if ( s.done!=null ) {
+				s.done.countDown();
+			}
+			if ( s.buf!=null ) {
+				free.offer(s.buf);
+			}
+		}
+	}
+
+	protected void ensureOpen() throws IOException {
+		if ( closed ) {
+			throw new IOException("writer closed");
+		}
+	}
+
+	protected void checkFailure() throws IOException {
+		Throwable e = failure;
+		if ( e!=null ) {
+			IOException ioe = new IOException("pipelined write failed: "+e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+}
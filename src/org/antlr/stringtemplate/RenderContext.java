@@ -0,0 +1,154 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.util.*;
+
+/** Per-rendering state passed to StringTemplate.write(out, context):
+ *  renderer overrides, a locale, an error listener and a cache of
+ *  formatters.  Renderers registered here take precedence over those
+ *  registered on templates and groups but only while this rendering
+ *  runs, so you can render the same templates for different locales at
+ *  the same time without touching the shared groups.
+ *
+ *  A context is used by one rendering at a time and isn't thread safe.
+ *  It's made available to renderers by RenderContext.getCurrent().
+ */
+public class RenderContext {
+	protected static final ThreadLocal current = new ThreadLocal();
+
+	/** Class to AttributeRenderer; resolved like group renderers */
+	protected Map renderers;
+
+	/** Class to resolved AttributeRenderer or NO_RENDERER */
+	protected Map resolvedRenderers;
+
+	protected Locale locale;
+
+	/** Where problems found during this rendering are reported instead
+	 *  of the templates' own listeners; null means use theirs.
+	 */
+	protected StringTemplateErrorListener errorListener;
+
+	/** Formatters cached by renderers for this rendering; see
+	 *  getCachedFormat().
+	 */
+	protected Map formats;
+
+	public RenderContext() {
+		this(Locale.getDefault());
+	}
+
+	public RenderContext(Locale locale) {
+		this.locale = locale;
+	}
+
+	/** The context of the rendering going on in this thread, if any */
+	public static RenderContext getCurrent() {
+		return (RenderContext)current.get();
+	}
+
+	/** Make context current for this thread and return the previous one,
+	 *  which the caller must restore.
+	 */
+	public static RenderContext setCurrent(RenderContext context) {
+		RenderContext previous = (RenderContext)current.get();
+		if ( context==null ) {
+			current.remove();
+		}
+		else {
+			current.set(context);
+		}
+		return previous;
+	}
+
+	public StringTemplateErrorListener getErrorListener() {
+		return errorListener;
+	}
+
+	public void setErrorListener(StringTemplateErrorListener errorListener) {
+		this.errorListener = errorListener;
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+		formats = null; // probably locale-specific
+	}
+
+	public void registerRenderer(Class attributeClassType,
+								 AttributeRenderer renderer)
+	{
+		if ( renderers==null ) {
+			renderers = new HashMap();
+		}
+		renderers.put(attributeClassType, renderer);
+		resolvedRenderers = null;
+	}
+
+	/** What renderer overrides the others for attributeClassType, or a
+	 *  superclass or interface of it, during this rendering?
+	 */
+	public AttributeRenderer getAttributeRenderer(Class attributeClassType) {
+		if ( renderers==null ) {
+			return null;
+		}
+		if ( resolvedRenderers==null ) {
+			resolvedRenderers = new HashMap();
+		}
+		Object renderer = resolvedRenderers.get(attributeClassType);
+		if ( renderer==null ) {
+			renderer = StringTemplateGroup.resolveRenderer(renderers,
+														   attributeClassType);
+			if ( renderer==null ) {
+				renderer = StringTemplateGroup.NO_RENDERER;
+			}
+			resolvedRenderers.put(attributeClassType, renderer);
+		}
+		return renderer==StringTemplateGroup.NO_RENDERER ?
+			null : (AttributeRenderer)renderer;
+	}
+
+	/** A formatter a renderer cached under key during this rendering, or
+	 *  null.  Handy for formatters like SimpleDateFormat that can't be
+	 *  shared across threads but are costly to create.
+	 */
+	public Object getCachedFormat(Object key) {
+		return formats!=null ? formats.get(key) : null;
+	}
+
+	public void cacheFormat(Object key, Object format) {
+		if ( formats==null ) {
+			formats = new HashMap();
+		}
+		formats.put(key, format);
+	}
+}
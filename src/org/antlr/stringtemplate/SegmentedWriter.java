@@ -0,0 +1,138 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/** A Writer that packs chars into fixed-size segments and hands each full
+ *  one to send(), reusing buffers that come back on the free queue.
+ *  Shared by PipelinedWriter and StringTemplateReader, which differ only
+ *  in where segments go and what happens when the other side goes away.
+ */
+abstract class SegmentedWriter extends Writer {
+	/** A filled (or partially filled at the end) chunk of output */
+	protected static class Segment {
+		char[] buf;
+		int n;
+		/** If non-null, this is a flush request; count down when done */
+		CountDownLatch done;
+		Segment(char[] buf, int n, CountDownLatch done) {
+			this.buf = buf;
+			this.n = n;
+			this.done = done;
+		}
+	}
+
+	protected int segmentSize;
+
+	/** Buffers handed back by the consumer so they can be refilled */
+	protected BlockingQueue free;
+
+	/** Segment being filled */
+	protected char[] buf = null;
+	protected int n = 0;
+
+	SegmentedWriter(int segmentSize, BlockingQueue free) {
+		this.segmentSize = segmentSize;
+		this.free = free;
+	}
+
+	/** A queue for up to maxSegments segments, checking both sizes */
+	static BlockingQueue newSegmentQueue(int segmentSize, int maxSegments) {
+		if ( segmentSize<=0 || maxSegments<=0 ) {
+			throw new IllegalArgumentException("segment size and count must be > 0");
+		}
+		return new ArrayBlockingQueue(maxSegments);
+	}
+
+	/** Pass on a filled segment; buf isn't touched again until it comes
+	 *  back on the free queue.
+	 */
+	protected abstract void send(char[] buf, int n) throws IOException;
+
+	public void write(int c) throws IOException {
+		if ( buf==null || n==buf.length ) {
+			nextBuffer();
+		}
+		buf[n++] = (char)c;
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		while ( len>0 ) {
+			if ( buf==null || n==buf.length ) {
+				nextBuffer();
+			}
+			int m = Math.min(len, buf.length-n);
+			System.arraycopy(cbuf, off, buf, n, m);
+			n += m;
+			off += m;
+			len -= m;
+		}
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+		while ( len>0 ) {
+			if ( buf==null || n==buf.length ) {
+				nextBuffer();
+			}
+			int m = Math.min(len, buf.length-n);
+			str.getChars(off, off+m, buf, n);
+			n += m;
+			off += m;
+			len -= m;
+		}
+	}
+
+	/** Send the partially filled segment, if any */
+	protected void sendPartial() throws IOException {
+		if ( buf!=null && n>0 ) {
+			char[] b = buf;
+			int m = n;
+			buf = null;
+			n = 0;
+			send(b, m);
+		}
+	}
+
+	protected void nextBuffer() throws IOException {
+		if ( buf!=null ) {
+			char[] b = buf;
+			buf = null;
+			send(b, n);
+		}
+		buf = (char[])free.poll();
+		if ( buf==null ) {
+			buf = new char[segmentSize];
+		}
+		n = 0;
+	}
+}
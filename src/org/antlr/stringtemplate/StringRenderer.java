@@ -0,0 +1,164 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** Renders Strings (register it for CharSequence.class to cover
+ *  StringBuffers and such too) with format="upper", "lower", "cap"
+ *  (capitalize the first char), "url-encode" or "xml-encode".  Case
+ *  changes use the RenderContext's locale if any.  Unknown formats fall
+ *  back to toString().  "upper", "lower" and "xml-encode" work a char
+ *  at a time, so format= on a nested template streams it through a
+ *  filter instead of rendering it to a String first.
+ */
+public class StringRenderer implements FilteringAttributeRenderer {
+	protected static final int UPPER = 1;
+	protected static final int LOWER = 2;
+	protected static final int CAP = 3;
+	protected static final int URL_ENCODE = 4;
+	protected static final int XML_ENCODE = 5;
+
+	/** Format name to one of the above */
+	protected static final Map formats = new HashMap();
+	static {
+		formats.put("upper", Integer.valueOf(UPPER));
+		formats.put("lower", Integer.valueOf(LOWER));
+		formats.put("cap", Integer.valueOf(CAP));
+		formats.put("url-encode", Integer.valueOf(URL_ENCODE));
+		formats.put("xml-encode", Integer.valueOf(XML_ENCODE));
+	}
+
+	/** Null means the RenderContext's locale or the default */
+	protected Locale locale;
+
+	public StringRenderer() {
+	}
+
+	public StringRenderer(Locale locale) {
+		this.locale = locale;
+	}
+
+	public String toString(Object o) {
+		return o.toString();
+	}
+
+	public String toString(Object o, String formatName) {
+		Integer op = (Integer)formats.get(formatName);
+		String s = o.toString();
+		if ( op==null ) {
+			return s;
+		}
+		switch ( op.intValue() ) {
+			case UPPER :
+				return s.toUpperCase(FormatCache.getLocale(locale));
+			case LOWER :
+				return s.toLowerCase(FormatCache.getLocale(locale));
+			case CAP :
+				if ( s.length()==0 ) {
+					return s;
+				}
+				return s.substring(0,1).toUpperCase(FormatCache.getLocale(locale))+
+					   s.substring(1);
+			case URL_ENCODE :
+				try {
+					return URLEncoder.encode(s, "UTF-8");
+				}
+				catch (UnsupportedEncodingException uee) {
+					return s; // can't happen; UTF-8 is always there
+				}
+			case XML_ENCODE :
+				return xmlEncode(s);
+		}
+		return s;
+	}
+
+	public StringTemplateWriter getFilter(String formatName,
+										  StringTemplateWriter out)
+	{
+		Integer op = (Integer)formats.get(formatName);
+		if ( op==null ) {
+			return null;
+		}
+		switch ( op.intValue() ) {
+			case UPPER :
+				final Locale upper = FormatCache.getLocale(locale);
+				return new FilterStringTemplateWriter(out) {
+					protected String filter(String str) {
+						return str.toUpperCase(upper);
+					}
+				};
+			case LOWER :
+				final Locale lower = FormatCache.getLocale(locale);
+				return new FilterStringTemplateWriter(out) {
+					protected String filter(String str) {
+						return str.toLowerCase(lower);
+					}
+				};
+			case XML_ENCODE :
+				return new FilterStringTemplateWriter(out) {
+					protected String filter(String str) {
+						return xmlEncode(str);
+					}
+				};
+		}
+		return null; // cap and url-encode need the whole string
+	}
+
+	protected static String xmlEncode(String s) {
+		StringBuffer buf = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			String e = null;
+			switch ( c ) {
+				case '&' : e = "&amp;"; break;
+				case '<' : e = "&lt;"; break;
+				case '>' : e = "&gt;"; break;
+				case '"' : e = "&quot;"; break;
+				case '\'' : e = "&#39;"; break;
+			}
+			if ( e!=null && buf==null ) {
+				buf = new StringBuffer(s.length()+16);
+				buf.append(s, 0, i);
+			}
+			if ( buf!=null ) {
+				if ( e!=null ) {
+					buf.append(e);
+				}
+				else {
+					buf.append(c);
+				}
+			}
+		}
+		return buf!=null ? buf.toString() : s;
+	}
+}
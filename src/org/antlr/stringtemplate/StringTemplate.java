@@ -29,6 +29,7 @@ package org.antlr.stringtemplate;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
@@ -178,22 +179,6 @@ public class StringTemplate {
 	 */
 	protected StringTemplateAST argumentsAST = null;
 
-	/** When templates are defined in a group file format, the attribute
-	 *  list is provided including information about attribute cardinality
-	 *  such as present, optional, ...  When this information is available,
-	 *  rawSetAttribute should do a quick existence check as should the
-	 *  invocation of other templates.  So if you ref bold(item="foo") but
-	 *  item is not defined in bold(), then an exception should be thrown.
-	 *  When actually rendering the template, the cardinality is checked.
-	 *  This is a Map<String,FormalArgument>.
-	 */
-	protected LinkedHashMap formalArguments = FormalArgument.UNKNOWN;
-
-	/** How many formal arguments to this template have default values
-	 *  specified?
-	 */
-	protected int numberOfDefaultArgumentValues = 0;
-
 	/** Normally, formal parameters hide any attributes inherited from the
 	 *  enclosing template with the same name.  This is normally what you
 	 *  want, but makes it hard to invoke another template passing in all
@@ -230,10 +215,11 @@ public class StringTemplate {
 	/** Where to report errors */
 	StringTemplateErrorListener listener = null;
 
-	/** The original, immutable pattern/language (not really used again after
-	 *  initial "compilation", setup/parsing).
+	/** The pattern, chunks, formal arguments and regions; shared with
+	 *  all instances made from this template.  Change it only through
+	 *  mutableCompiledTemplate().
 	 */
-	protected String pattern;
+	protected CompiledTemplate impl = new CompiledTemplate();
 
 	/** Map an attribute name to its value(s).  These values are set by outside
 	 *  code via st.setAttribute(name, value).  StringTemplate is like self in
@@ -254,29 +240,12 @@ public class StringTemplate {
 	  */
 	protected Map attributeRenderers;
 
-	/** A list of alternating string and ASTExpr references.
-	 *  This is compiled to when the template is loaded/defined and walked to
-	 *  write out a template instance.
-	 */
-	protected List chunks;
-
-	/** If someone refs <@r()> in template t, an implicit
-	 *
-	 *   @t.r() ::= ""
-	 *
-	 *  is defined, but you can overwrite this def by defining your
-	 *  own.  We need to prevent more than one manual def though.  Between
-	 *  this var and isEmbeddedRegion we can determine these cases.
-	 */
-	protected int regionDefType;
-
-	/** Does this template come from a <@region>...<@end> embedded in
-	 *  another template?
+	/** Class to the renderer resolveRenderer() found in attributeRenderers
+	 *  or StringTemplateGroup.NO_RENDERER; read without locking.
+	 *  Shared along with attributeRenderers by instances of a template
+	 *  and cleared whenever a renderer is registered.
 	 */
-	protected boolean isRegion;
-
-	/** Set of implicit and embedded regions for this template */
-	protected Set regions;
+	protected Map resolvedRenderers;
 
 	public static StringTemplateGroup defaultGroup =
 		new StringTemplateGroup("defaultGroup", ".");
@@ -325,17 +294,26 @@ public class StringTemplate {
 	 */
 	protected void dup(StringTemplate from, StringTemplate to) {
 		to.attributeRenderers = from.attributeRenderers;
-		to.pattern = from.pattern;
-		to.chunks = from.chunks;
-		to.formalArguments = from.formalArguments;
-		to.numberOfDefaultArgumentValues = from.numberOfDefaultArgumentValues;
+		to.resolvedRenderers = from.resolvedRenderers;
+		from.impl.freeze();
+		to.impl = from.impl;
 		to.name = from.name;
 		to.group = from.group;
 		to.nativeGroup = from.nativeGroup;
 		to.listener = from.listener;
-		to.regions = from.regions;
-		to.isRegion = from.isRegion;
-		to.regionDefType = from.regionDefType;
+	}
+
+	/** The compiled pattern shared by this template and its instances */
+	public CompiledTemplate getCompiledTemplate() {
+		return impl;
+	}
+
+	/** Return impl, first copying it if it's shared (copy on write) */
+	protected CompiledTemplate mutableCompiledTemplate() {
+		if ( impl.frozen ) {
+			impl = new CompiledTemplate(impl);
+		}
+		return impl;
 	}
 
 	/** Make an instance of this template; it contains an exact copy of
@@ -377,6 +355,9 @@ public class StringTemplate {
 		this.enclosingInstance = enclosingInstance;
 	}
 
+	/** The argument context is a StringKeyMap, not a HashMap; don't
+	 *  cast it.  Copy it with new HashMap(m) if you need one.
+	 */
 	public Map getArgumentContext() {
 		return argumentContext;
 	}
@@ -437,12 +418,17 @@ public class StringTemplate {
 	}
 
 	public void setTemplate(String template) {
-		this.pattern = template;
+		mutableCompiledTemplate().pattern = template;
 		breakTemplateIntoChunks();
 	}
 
+	/** Set the pattern but don't compile it until breakTemplateIntoChunks() */
+	protected void setUncompiledTemplate(String template) {
+		mutableCompiledTemplate().pattern = template;
+	}
+
 	public String getTemplate() {
-		return pattern;
+		return impl.pattern;
 	}
 
 	public void setErrorListener(StringTemplateErrorListener listener) {
@@ -456,8 +442,31 @@ public class StringTemplate {
 		return listener;
 	}
 
+	/** Where problems go: the current RenderContext's listener if it has
+	 *  one, else getErrorListener().
+	 */
+	protected StringTemplateErrorListener getReportingErrorListener() {
+		RenderContext context = RenderContext.getCurrent();
+		if ( context!=null && context.getErrorListener()!=null ) {
+			return context.getErrorListener();
+		}
+		return getErrorListener();
+	}
+
 	public void reset() {
-		attributes = new HashMap(); // just throw out table and make new one
+		attributes = newAttributeMap(); // just throw out table and make new one
+	}
+
+	/** A Map for attributes or arguments of this template, sized to its
+	 *  formal arguments.
+	 */
+	public Map newAttributeMap() {
+		if ( impl.formalArguments==null ||
+			 impl.formalArguments==FormalArgument.UNKNOWN )
+		{
+			return new StringKeyMap();
+		}
+		return new StringKeyMap(impl.formalArguments.size());
 	}
 
 	public void setPredefinedAttributes() {
@@ -490,7 +499,7 @@ public class StringTemplate {
 			throw new IllegalArgumentException("cannot have '.' in attribute names");
 		}
 		if ( attributes==null ) {
-			attributes = new HashMap();
+			attributes = newAttributeMap();
 		}
 
 		if ( value instanceof StringTemplate ) {
@@ -541,7 +550,7 @@ public class StringTemplate {
 
 	/** Convenience method to box ints */
 	public void setAttribute(String name, int value) {
-		setAttribute(name, new Integer(value));
+		setAttribute(name, Integer.valueOf(value));
 	}
 
 	/** Set an aggregate attribute with two values.  The attribute name
@@ -640,7 +649,7 @@ public class StringTemplate {
 								   String name,
 								   Object value)
 	{
-		if ( formalArguments!=FormalArgument.UNKNOWN &&
+		if ( impl.formalArguments!=FormalArgument.UNKNOWN &&
 			getFormalArgument(name)==null )
 		{
 			// a normal call to setAttribute with unknown attribute
@@ -664,7 +673,7 @@ public class StringTemplate {
 										String name,
 										Object value)
 	{
-		if ( embedded.formalArguments!=FormalArgument.UNKNOWN &&
+		if ( embedded.impl.formalArguments!=FormalArgument.UNKNOWN &&
 			 embedded.getFormalArgument(name)==null )
 		{
 			throw new NoSuchElementException("template "+embedded.getName()+
@@ -700,6 +709,7 @@ public class StringTemplate {
         boolean missing = true;
 		setPredefinedAttributes();
 		setDefaultArgumentValues();
+		List chunks = impl.chunks;
 		for (int i=0; chunks!=null && i<chunks.size(); i++) {
 			Expr a = (Expr)chunks.get(i);
 			int chunkN = a.write(this, out);
@@ -734,6 +744,22 @@ public class StringTemplate {
         return n;
 	}
 
+	/** Write this template using context's renderer overrides and locale;
+	 *  see RenderContext.  Nothing shared is changed so other threads can
+	 *  render the same templates with other contexts at the same time.
+	 */
+	public int write(StringTemplateWriter out, RenderContext context)
+		throws IOException
+	{
+		RenderContext previous = RenderContext.setCurrent(context);
+		try {
+			return write(out);
+		}
+		finally {
+			RenderContext.setCurrent(previous);
+		}
+	}
+
 	/** Resolve an attribute reference.  It can be in four possible places:
 	 *
 	 *  1. the attribute list for the current template
@@ -827,7 +853,7 @@ public class StringTemplate {
 	 */
 	protected void breakTemplateIntoChunks() {
 		//System.out.println("parsing template: "+pattern);
-		if ( pattern==null ) {
+		if ( impl.pattern==null ) {
 			return;
 		}
 		try {
@@ -843,12 +869,16 @@ public class StringTemplate {
 					);
 			CharScanner chunkStream =
 					(CharScanner) ctor.newInstance(
-						new Object[] {this,new StringReader(pattern)}
+						new Object[] {this,new StringReader(impl.pattern)}
 					);
 			chunkStream.setTokenObjectClass("org.antlr.stringtemplate.language.ChunkToken");
 			TemplateParser chunkifier = new TemplateParser(chunkStream);
 			chunkifier.template(this);
 			//System.out.println("chunks="+chunks);
+			if ( group.isDiscardingTemplatePatterns() ) {
+				LiteralPool.discarded(impl.pattern);
+				mutableCompiledTemplate().pattern = null;
+			}
 		}
 		catch (Exception e) {
 			String name = "<unknown>";
@@ -897,6 +927,9 @@ public class StringTemplate {
 		return templateID;
 	}
 
+	/** The attributes are held in a StringKeyMap, not a HashMap; don't
+	 *  cast it.  Copy it with new HashMap(m) if you need one.
+	 */
 	public Map getAttributes() {
 		return attributes;
 	}
@@ -905,14 +938,15 @@ public class StringTemplate {
 	 *  refs in a template.
 	 */
 	public List getChunks() {
-		return chunks;
+		return impl.chunks;
 	}
 
 	public void addChunk(Expr e) {
-		if ( chunks==null ) {
-			chunks = new ArrayList();
+		CompiledTemplate impl = mutableCompiledTemplate();
+		if ( impl.chunks==null ) {
+			impl.chunks = new ArrayList();
 		}
-		chunks.add(e);
+		impl.chunks.add(e);
 	}
 
 	public void setAttributes(Map attributes) {
@@ -922,11 +956,11 @@ public class StringTemplate {
 	// F o r m a l  A r g  S t u f f
 
 	public Map getFormalArguments() {
-		return formalArguments;
+		return impl.formalArguments;
 	}
 
 	public void setFormalArguments(LinkedHashMap args) {
-		formalArguments = args;
+		mutableCompiledTemplate().formalArguments = args;
 	}
 
 	/** Set any default argument values that were not set by the
@@ -941,20 +975,20 @@ public class StringTemplate {
 	 */
 	public void setDefaultArgumentValues() {
         //System.out.println("setDefaultArgumentValues; "+name+": argctx="+argumentContext+", n="+numberOfDefaultArgumentValues);
-		if ( numberOfDefaultArgumentValues==0 ) {
+		if ( impl.numberOfDefaultArgumentValues==0 ) {
 			return;
 		}
 		if ( argumentContext==null ) {
-			argumentContext = new HashMap();
+			argumentContext = newAttributeMap();
 		}
-		if ( formalArguments!=FormalArgument.UNKNOWN ) {
+		if ( impl.formalArguments!=FormalArgument.UNKNOWN ) {
             //System.out.println("formal args="+formalArguments.keySet());
-			Set argNames = formalArguments.keySet();
+			Set argNames = impl.formalArguments.keySet();
 			for (Iterator it = argNames.iterator(); it.hasNext();) {
 				String argName = (String) it.next();
 				// use the default value then
 				FormalArgument arg =
-					(FormalArgument)formalArguments.get(argName);
+					(FormalArgument)impl.formalArguments.get(argName);
 				if ( arg.defaultValueST!=null ) {
                     //System.out.println("default value="+arg.defaultValueST.chunks);
                     //System.out.println(getEnclosingInstanceStackString()+": get "+argName+" argctx="+argumentContext);
@@ -966,13 +1000,13 @@ public class StringTemplate {
 						// to the default value.  We don't need an instance
 						// here because no attributes can be set in
 						// the arg templates by the user.
-                        int nchunks = arg.defaultValueST.chunks.size();
+                        int nchunks = arg.defaultValueST.impl.chunks.size();
                         if ( nchunks==1 ) {
                             // If default arg is template with single expression
                             // wrapped in parens, x={<(...)>}, then eval to string
                             // rather than setting x to the template for later
                             // eval.
-                            Object a = arg.defaultValueST.chunks.get(0);
+                            Object a = arg.defaultValueST.impl.chunks.get(0);
                             if ( a instanceof ASTExpr ) {
                                 ASTExpr e = (ASTExpr)a;
                                 if ( e.getAST().getType()==ActionEvaluator.VALUE ) {
@@ -999,7 +1033,7 @@ public class StringTemplate {
 	}
 
 	public FormalArgument getFormalArgument(String name) {
-		return (FormalArgument)formalArguments.get(name);
+		return (FormalArgument)impl.formalArguments.get(name);
 	}
 
 	public void defineEmptyFormalArgumentList() {
@@ -1023,16 +1057,17 @@ public class StringTemplate {
 	public void defineFormalArgument(String name, StringTemplate defaultValue) {
         /*
         System.out.println("define formal arg "+this.name+"."+name+
-                           ", def value="+(defaultValue!=null?defaultValue.chunks:"null"));
+                           ", def value="+(defaultValue!=null?defaultValue.impl.chunks:"null"));
                            */
+		CompiledTemplate impl = mutableCompiledTemplate();
 		if ( defaultValue!=null ) {
-			numberOfDefaultArgumentValues++;
+			impl.numberOfDefaultArgumentValues++;
 		}
 		FormalArgument a = new FormalArgument(name,defaultValue);
-		if ( formalArguments==FormalArgument.UNKNOWN ) {
-			formalArguments = new LinkedHashMap();
+		if ( impl.formalArguments==FormalArgument.UNKNOWN ) {
+			impl.formalArguments = new LinkedHashMap();
 		}
-		formalArguments.put(name, a);
+		impl.formalArguments.put(name, a);
 	}
 
 	/** Normally if you call template y from x, y cannot see any attributes
@@ -1045,10 +1080,12 @@ public class StringTemplate {
 	}
 
 	/** Specify a complete map of what object classes should map to which
-	 *  renderer objects.
+	 *  renderer objects.  The map is copied; use registerRenderer() to
+	 *  change it afterwards.
 	 */
 	public void setAttributeRenderers(Map renderers) {
-		this.attributeRenderers = renderers;
+		this.attributeRenderers = renderers!=null ? new HashMap(renderers) : null;
+		this.resolvedRenderers = newResolvedRendererCache();
 	}
 
 	/** Register a renderer for all objects of a particular type.  This
@@ -1057,17 +1094,51 @@ public class StringTemplate {
 	public void registerRenderer(Class attributeClassType, AttributeRenderer renderer) {
 		if ( attributeRenderers==null ) {
 			attributeRenderers = new HashMap();
+			resolvedRenderers = newResolvedRendererCache();
 		}
 		attributeRenderers.put(attributeClassType, renderer);
+		resolvedRenderers.clear();
 	}
 
-	/** What renderer is registered for this attributeClassType for
-	 *  this template.  If not found, the template's group is queried.
+	protected static Map newResolvedRendererCache() {
+		return new ConcurrentHashMap();
+	}
+
+	/** What renderer is registered for this attributeClassType (or a
+	 *  superclass or interface of it) for this template.  If not found,
+	 *  the template's group is queried.
 	 */
 	public AttributeRenderer getAttributeRenderer(Class attributeClassType) {
+		RenderContext context = RenderContext.getCurrent();
+		if ( context!=null ) {
+			AttributeRenderer renderer =
+				context.getAttributeRenderer(attributeClassType);
+			if ( renderer!=null ) {
+				return renderer; // overridden for this rendering
+			}
+		}
+		return lookupAttributeRenderer(attributeClassType);
+	}
+
+	/** getAttributeRenderer() without the RenderContext */
+	protected AttributeRenderer lookupAttributeRenderer(Class attributeClassType) {
 		AttributeRenderer renderer = null;
-		if ( attributeRenderers!=null ) {
-			renderer = (AttributeRenderer)attributeRenderers.get(attributeClassType);
+		if ( attributeRenderers!=null && attributeClassType!=null ) {
+			if ( resolvedRenderers==null ) {
+				resolvedRenderers = newResolvedRendererCache();
+			}
+			Object r = resolvedRenderers.get(attributeClassType);
+			if ( r==null ) {
+				r = StringTemplateGroup.resolveRenderer(attributeRenderers,
+														attributeClassType);
+				if ( r==null ) {
+					r = StringTemplateGroup.NO_RENDERER;
+				}
+				resolvedRenderers.put(attributeClassType, r);
+			}
+			if ( r!=StringTemplateGroup.NO_RENDERER ) {
+				renderer = (AttributeRenderer)r;
+			}
 		}
 		if ( renderer!=null ) {
 			// found it!
@@ -1077,7 +1148,7 @@ public class StringTemplate {
 		// we have no renderer overrides for the template or none for class arg
 		// check parent template if we are embedded
 		if ( enclosingInstance!=null ) {
-			return enclosingInstance.getAttributeRenderer(attributeClassType);
+			return enclosingInstance.lookupAttributeRenderer(attributeClassType);
 		}
 		// else check group
 		return group.getAttributeRenderer(attributeClassType);
@@ -1090,8 +1161,9 @@ public class StringTemplate {
 	}
 
 	public void warning(String msg) {
-		if ( getErrorListener()!=null ) {
-			getErrorListener().warning(msg);
+		StringTemplateErrorListener errors = getReportingErrorListener();
+		if ( errors!=null ) {
+			errors.warning(msg);
 		}
 		else {
 			System.err.println("StringTemplate: warning: "+msg);
@@ -1099,8 +1171,9 @@ public class StringTemplate {
 	}
 
 	public void error(String msg, Throwable e) {
-		if ( getErrorListener()!=null ) {
-			getErrorListener().error(msg,e);
+		StringTemplateErrorListener errors = getReportingErrorListener();
+		if ( errors!=null ) {
+			errors.error(msg,e);
 		}
 		else {
 			if ( e!=null ) {
@@ -1235,7 +1308,7 @@ public class StringTemplate {
 		buf.append("<");
 		buf.append(getName());
 		buf.append("(");
-		buf.append(formalArguments.keySet());
+		buf.append(impl.formalArguments.keySet());
 		buf.append(")@");
 		buf.append(String.valueOf(getTemplateID()));
 		buf.append(">");
@@ -1260,11 +1333,11 @@ public class StringTemplate {
 	 *  We must check the attributes as well as the incoming arguments
 	 *  in argumentContext.
 	protected void checkAttributesAgainstFormalArguments() {
-		Set args = formalArguments.keySet();
+		Set args = impl.formalArguments.keySet();
 		/*
 		if ( (attributes==null||attributes.size()==0) &&
 			 (argumentContext==null||argumentContext.size()==0) &&
-			 formalArguments.size()!=0 )
+			 impl.formalArguments.size()!=0 )
 		{
 			throw new IllegalArgumentException("missing argument(s): "+args+" in template "+getName());
 		}
@@ -1352,42 +1425,48 @@ public class StringTemplate {
 	}
 
 	public boolean isRegion() {
-		return isRegion;
+		return impl.isRegion;
 	}
 
 	public void setIsRegion(boolean isRegion) {
-		this.isRegion = isRegion;
+		mutableCompiledTemplate().isRegion = isRegion;
 	}
 
 	public void addRegionName(String name) {
-		if ( regions==null ) {
-			regions = new HashSet();
+		CompiledTemplate impl = mutableCompiledTemplate();
+		if ( impl.regions==null ) {
+			impl.regions = new HashSet();
 		}
-		regions.add(name);
+		impl.regions.add(name);
 	}
 
 	/** Does this template ref or embed region name? */
 	public boolean containsRegionName(String name) {
-		if ( regions==null ) {
+		if ( impl.regions==null ) {
 			return false;
 		}
-		return regions.contains(name);
+		return impl.regions.contains(name);
+	}
+
+	/** Names of the regions this template refs or embeds; null if none */
+	public Set getRegionNames() {
+		return impl.regions;
 	}
 
 	public int getRegionDefType() {
-		return regionDefType;
+		return impl.regionDefType;
 	}
 
 	public void setRegionDefType(int regionDefType) {
-		this.regionDefType = regionDefType;
+		mutableCompiledTemplate().regionDefType = regionDefType;
 	}
 
 	public String toDebugString() {
 		StringBuffer buf = new StringBuffer();
 		buf.append("template-"+getTemplateDeclaratorString()+":");
 		buf.append("chunks=");
-		if ( chunks!=null ) {
-			buf.append(chunks.toString());
+		if ( impl.chunks!=null ) {
+			buf.append(impl.chunks.toString());
 		}
 		buf.append("attributes=[");
 		if ( attributes!=null ) {
@@ -1579,8 +1658,8 @@ public class StringTemplate {
 			}
 		}
 		// look in chunks too for template refs
-		for (int i = 0; chunks!=null && i < chunks.size(); i++) {
-			Expr expr = (Expr) chunks.get(i);
+		for (int i = 0; impl.chunks!=null && i < impl.chunks.size(); i++) {
+			Expr expr = (Expr) impl.chunks.get(i);
 			if ( expr instanceof ASTExpr ) {
 				ASTExpr e = (ASTExpr)expr;
 				AST tree = e.getAST();
@@ -1603,6 +1682,32 @@ public class StringTemplate {
 		}
 	}
 
+	/** Return the names of the templates this template invokes directly,
+	 *  including from IF clauses, anonymous subtemplates and default
+	 *  argument values.  Unlike getDependencyGraph(), this looks only at
+	 *  the compiled template, not at attribute values, and doesn't
+	 *  descend into the invoked templates.
+	 */
+	public Set getTemplateReferences() {
+		Set names = new HashSet();
+		for (int i = 0; impl.chunks!=null && i < impl.chunks.size(); i++) {
+			Object chunk = impl.chunks.get(i);
+			if ( chunk instanceof ASTExpr ) {
+				((ASTExpr)chunk).getTemplateReferences(names);
+			}
+		}
+		if ( impl.formalArguments!=null && impl.formalArguments!=FormalArgument.UNKNOWN ) {
+			Iterator it = impl.formalArguments.values().iterator();
+			while ( it.hasNext() ) {
+				FormalArgument arg = (FormalArgument)it.next();
+				if ( arg.defaultValueST!=null ) {
+					names.addAll(arg.defaultValueST.getTemplateReferences());
+				}
+			}
+		}
+		return names;
+	}
+
 	/** Manage a hash table like it has multiple unique values.  Map<Object,Set>. */
 	protected void putToMultiValuedMap(Map map, Object key, Object value) {
 		HashSet bag = (HashSet)map.get(key);
@@ -1616,7 +1721,7 @@ public class StringTemplate {
 	public void printDebugString() {
 		System.out.println("template-"+getName()+":");
 		System.out.print("chunks=");
-		System.out.println(chunks.toString());
+		System.out.println(impl.chunks.toString());
 		if ( attributes==null ) {
 			return;
 		}
@@ -1661,6 +1766,17 @@ public class StringTemplate {
 		return toString(StringTemplateWriter.NO_WRAP);
 	}
 
+	/** Render to a String with context's renderers and locale */
+	public String toString(RenderContext context) {
+		RenderContext previous = RenderContext.setCurrent(context);
+		try {
+			return toString();
+		}
+		finally {
+			RenderContext.setCurrent(previous);
+		}
+	}
+
 	public String toString(int lineWidth) {
 		StringWriter out = new StringWriter();
 		// Write the output to a StringWriter
@@ -1679,4 +1795,23 @@ public class StringTemplate {
 		return out.toString();
 	}
 
+	/** Return a Reader that renders this template as you read from it
+	 *  rather than building the whole output in memory first.  Rendering
+	 *  occurs in a separate thread; see StringTemplateReader.
+	 */
+	public Reader openReader() {
+		return openReader(StringTemplateWriter.NO_WRAP);
+	}
+
+	public Reader openReader(int lineWidth) {
+		return new StringTemplateReader(this, lineWidth);
+	}
+
+	/** Like openReader() but rendering with context; see RenderContext */
+	public Reader openReader(int lineWidth, RenderContext context) {
+		StringTemplateReader r = new StringTemplateReader(this, lineWidth);
+		r.setRenderContext(context);
+		return r;
+	}
+
 }
@@ -31,9 +31,21 @@ import org.antlr.stringtemplate.language.DefaultTemplateLexer;
 import org.antlr.stringtemplate.language.GroupLexer;
 import org.antlr.stringtemplate.language.GroupParser;
 import org.antlr.stringtemplate.language.AngleBracketTemplateLexer;
+import org.antlr.stringtemplate.language.CharBufferReader;
+import org.antlr.stringtemplate.language.ASTExpr;
+import org.antlr.stringtemplate.language.FormalArgument;
+import org.antlr.stringtemplate.language.StringRef;
+import org.antlr.stringtemplate.language.LiteralPool;
+import org.antlr.stringtemplate.language.GroupMap;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
+import java.nio.CharBuffer;
 import java.lang.reflect.Constructor;
 
 /** Manages a group of named mutually-referential StringTemplate objects.
@@ -69,6 +81,24 @@ public class StringTemplateGroup {
 	 */
 	protected Map maps = new HashMap();
 
+	/** If not null, only templates reachable from these names are
+	 *  compiled when a group file is loaded.
+	 */
+	protected Collection entryPoints = null;
+
+	/** Names of templates from the group file whose pattern hasn't been
+	 *  compiled yet; null unless there are entryPoints.
+	 */
+	protected Set uncompiledTemplates = null;
+
+	/** While reload() is parsing, the templates and maps from before so
+	 *  unchanged definitions can be reused.  null otherwise.
+	 */
+	protected Map previousTemplates = null;
+	protected Map previousMaps = null;
+	/** Previous templates never compiled, so there's nothing to reuse */
+	protected Set previousUncompiled = null;
+
 	/** How to pull apart a template into chunks? */
 	protected Class templateLexerClass = null;
 
@@ -136,6 +166,44 @@ public class StringTemplateGroup {
 	 */
 	protected Map attributeRenderers;
 
+	/** Bumped whenever this group's renderers, maps or supergroup change.
+	 *  LookupTables built for an older generation are rebuilt on next use.
+	 */
+	protected final AtomicInteger definitionGeneration = new AtomicInteger();
+
+	/** Bumped along with every group's definitionGeneration.  While it
+	 *  hasn't moved, tables already checked against it are current and
+	 *  getLookupTables() needn't walk the supergroup chain.
+	 */
+	protected static final AtomicInteger hierarchyGeneration = new AtomicInteger();
+
+	/** This group's renderers and maps merged with its supergroups' so a
+	 *  lookup is one hash probe rather than a walk up the hierarchy.
+	 */
+	protected static class LookupTables {
+		public int generation;
+		/** hierarchyGeneration when these were last found current */
+		public volatile int checkedGeneration;
+		/** The supergroup's tables these were merged from; stale once the
+		 *  supergroup has rebuilt its own.
+		 */
+		public LookupTables superTables;
+		public Map renderers;
+		public Map maps;
+		/** Attribute class to the renderer resolved for it or NO_RENDERER.
+		 *  Read without locking; dropped along with the tables when a
+		 *  renderer is registered, so classes aren't pinned for long.
+		 */
+		public Map resolvedRenderers = new ConcurrentHashMap();
+	}
+
+	/** Cached when a class has no renderer so a miss isn't mistaken
+	 *  for "not resolved yet".
+	 */
+	protected static final Object NO_RENDERER = new Object();
+
+	protected volatile LookupTables lookupTables;
+
 	/** Maps obj.prop to a value to avoid reflection costs; track one
 	 *  set of all class.property -> Member mappings for all ST usage in VM.
 	protected static Map classPropertyCache = new HashMap();
@@ -185,16 +253,74 @@ public class StringTemplateGroup {
 			}
 		};
 
+	/** While precompileTemplate() compiles a template outside the lock,
+	 *  the region templates it defines are collected in this thread's Map
+	 *  and installed along with it.
+	 */
+	protected final ThreadLocal stagedRegions = new ThreadLocal();
+
+	/** Swallows everything; used while warming up templates */
+	protected static final StringTemplateErrorListener SILENT_ERROR_LISTENER =
+		new StringTemplateErrorListener() {
+			public void error(String s, Throwable e) { }
+			public void warning(String s) { }
+		};
+
 	/** Used to indicate that the template doesn't exist.
 	 *  We don't have to check disk for it; we know it's not there.
 	 */
 	protected static final StringTemplate NOT_FOUND_ST =
 		new StringTemplate();
 
-	/** How long before tossing out all templates in seconds. */
+	/** How long before checking templates against the disk in seconds. */
 	protected int refreshIntervalInSeconds = Integer.MAX_VALUE/1000; // default: no refreshing from disk
 	protected long lastCheckedDisk = 0L;
 
+	/** Bumped each time the refresh interval expires.  An entry in
+	 *  templates is rechecked against its source the first time it is
+	 *  looked up in a new epoch.
+	 */
+	protected int refreshEpoch = 0;
+
+	/** Where did each entry in templates come from?  Maps template name
+	 *  to TemplateSource.  Entries with no file (inherited templates,
+	 *  templates defined in code, jar resources) are tossed out once per
+	 *  refresh epoch like all templates used to be.
+	 */
+	protected Map templateSources = new HashMap();
+
+	/** The file a template was loaded from (or would be loaded from if
+	 *  it's NOT_FOUND) and it's modification time when we read it.
+	 */
+	protected static class TemplateSource {
+		public File file;
+		public long lastModified;
+		public int checkedInEpoch;
+		public TemplateSource(File file, long lastModified, int epoch) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.checkedInEpoch = epoch;
+		}
+	}
+
+	/** If > 0, the templates loaded from disk/CLASSPATH or inherited from
+	 *  the supergroup are kept in an LRU bounded by this many (estimated)
+	 *  bytes; evicted templates are loaded again on their next lookup.
+	 *  Templates defined in code or in a group file are never evicted.
+	 */
+	protected long maxTemplateCacheBytes = 0;
+
+	/** Evictable template names to estimated retained bytes in LRU order */
+	protected LinkedHashMap evictableTemplates =
+		new LinkedHashMap(16, 0.75f, true);
+	protected long templateCacheBytes = 0;
+	protected int templateCacheHits = 0;
+	protected int templateCacheMisses = 0;
+	protected int templateCacheEvictions = 0;
+
+	/** Drop the pattern of each template once it's compiled? */
+	protected boolean discardTemplatePatterns = false;
+
 	/** How are the files encoded (ascii, UTF8, ...)?  You might want to read
 	 *  UTF8 for example on an ascii machine.
 	 */
@@ -260,8 +386,40 @@ public class StringTemplateGroup {
 							   Class lexer,
 							   StringTemplateErrorListener errors,
 							   StringTemplateGroup superGroup)
+	{
+		this(r, lexer, errors, superGroup, null);
+	}
+
+	/** Create a group from a group file but only compile the templates
+	 *  reachable from entryPoints (template names) by direct invocation;
+	 *  see getTemplateReferences().  The others are compiled when they
+	 *  are first looked up, e.g., via <(name)()>.  Pass null entryPoints
+	 *  to compile everything.
+	 */
+	public StringTemplateGroup(Reader r,
+							   Class lexer,
+							   StringTemplateErrorListener errors,
+							   StringTemplateGroup superGroup,
+							   Collection entryPoints)
+	{
+		this(r, lexer, errors, superGroup, entryPoints, true);
+	}
+
+	/** If !register, don't add the group to the table of groups by name;
+	 *  StringTemplateGroupHolder does that itself when it publishes it.
+	 */
+	StringTemplateGroup(Reader r,
+						Class lexer,
+						StringTemplateErrorListener errors,
+						StringTemplateGroup superGroup,
+						Collection entryPoints,
+						boolean register)
 	{
 		this.templatesDefinedInGroupFile = true;
+		this.entryPoints = entryPoints;
+		if ( entryPoints!=null ) {
+			uncompiledTemplates = new HashSet();
+		}
 		// if no lexer specified, then assume <...> when loading from group file
 		if ( lexer==null ) {
 			lexer = AngleBracketTemplateLexer.class;
@@ -272,7 +430,12 @@ public class StringTemplateGroup {
 		}
 		setSuperGroup(superGroup);
 		parseGroup(r);
-		nameToGroupMap.put(name, this);
+		if ( entryPoints!=null ) {
+			compileReachableTemplates(entryPoints);
+		}
+		if ( register ) {
+			nameToGroupMap.put(name, this);
+		}
 		verifyInterfaceImplementations();
 	}
 
@@ -296,6 +459,7 @@ public class StringTemplateGroup {
 
 	public void setSuperGroup(StringTemplateGroup superGroup) {
 		this.superGroup = superGroup;
+		definitionsChanged();
 	}
 
 	/** Called by group parser when ": supergroupname" is found.
@@ -473,7 +637,17 @@ public class StringTemplateGroup {
 		}
 		checkRefreshInterval();
 		StringTemplate st = (StringTemplate)templates.get(name);
+		if ( st!=null && isStale(name, st) ) {
+			invalidateTemplate(name);
+			st = null;
+		}
+		compileIfUncompiled(name);
+		if ( st!=null && st!=NOT_FOUND_ST ) {
+			templateCacheHits++;
+			evictableTemplates.get(name); // touch
+		}
 		if ( st==null ) {
+			templateCacheMisses++;
 			// not there?  Attempt to load
 			if ( !templatesDefinedInGroupFile ) {
 				// only check the disk for individual template
@@ -486,6 +660,9 @@ public class StringTemplateGroup {
 				// group is reset; it's nativeGroup will remain where it was
 				if ( st!=null ) {
 					st.setGroup(this);
+					// super may change; toss out at next refresh
+					templateSources.put(name,
+						new TemplateSource(null, 0, refreshEpoch));
 				}
 			}
 			if ( st!=null ) { // found in superGroup
@@ -493,10 +670,17 @@ public class StringTemplateGroup {
 				// to change it's def later or this group to add
 				// an override.
 				templates.put(name, st);
+				cacheTemplate(name, st);
 			}
 			else {
 				// not found; remember that this sucker doesn't exist
 				templates.put(name, NOT_FOUND_ST);
+				if ( !templatesDefinedInGroupFile ) {
+					// watch for the file to appear
+					templateSources.put(name,
+						new TemplateSource(getTemplateFile(getFileNameFromTemplateName(name)),
+										   0, refreshEpoch));
+				}
 				String context = "";
 				if ( enclosingInstance!=null ) {
 					context = "; context is "+
@@ -527,15 +711,176 @@ public class StringTemplateGroup {
 		boolean timeToFlush=refreshIntervalInSeconds==0 ||
 							(System.currentTimeMillis()-lastCheckedDisk)>=refreshIntervalInSeconds*1000;
 		if ( timeToFlush ) {
-			// throw away all pre-compiled references
-			templates.clear();
+			// recheck pre-compiled references against disk as they're used
+			refreshEpoch++;
 			lastCheckedDisk = System.currentTimeMillis();
 		}
 	}
 
+	/** Has the source of template name changed since we loaded it?  A
+	 *  template is checked at most once per refresh epoch.  NOT_FOUND
+	 *  entries go stale when their file shows up.  Regions belong to
+	 *  their enclosing template and are tossed out with it.
+	 */
+	protected boolean isStale(String name, StringTemplate st) {
+		if ( templatesDefinedInGroupFile ) {
+			return false;
+		}
+		if ( st.isRegion() && st.getNativeGroup()==this ) {
+			return false;
+		}
+		TemplateSource src = (TemplateSource)templateSources.get(name);
+		if ( src==null ) {
+			return true; // no idea where it came from
+		}
+		if ( src.checkedInEpoch==refreshEpoch ) {
+			return false;
+		}
+		if ( src.file==null || src.file.lastModified()!=src.lastModified ) {
+			return true;
+		}
+		src.checkedInEpoch = refreshEpoch;
+		return false;
+	}
+
+	/** Toss out the compiled template called name, and any regions it
+	 *  defines, so the next lookup loads it again.  Useful to call from a
+	 *  file watcher.
+	 */
+	public synchronized void invalidateTemplate(String name) {
+		StringTemplate st = (StringTemplate)templates.remove(name);
+		templateSources.remove(name);
+		Long size = (Long)evictableTemplates.remove(name);
+		if ( size!=null ) {
+			templateCacheBytes -= size.longValue();
+		}
+		// an inherited template's regions live in its native group
+		if ( st!=null && st.getNativeGroup()==this &&
+			 st.getRegionNames()!=null )
+		{
+			Iterator it = st.getRegionNames().iterator();
+			while ( it.hasNext() ) {
+				String regionName = (String)it.next();
+				templates.remove(getMangledRegionName(name, regionName));
+			}
+		}
+	}
+
+	/** Track a template just loaded or inherited into templates and evict
+	 *  the least recently used ones until we're under
+	 *  maxTemplateCacheBytes.  The new one always stays.
+	 */
+	protected void cacheTemplate(String name, StringTemplate st) {
+		if ( templatesDefinedInGroupFile ) {
+			return;
+		}
+		long size = estimateRetainedSize(st);
+		Long old = (Long)evictableTemplates.put(name, Long.valueOf(size));
+		if ( old!=null ) {
+			templateCacheBytes -= old.longValue();
+		}
+		templateCacheBytes += size;
+		if ( maxTemplateCacheBytes<=0 ) {
+			return;
+		}
+		while ( templateCacheBytes>maxTemplateCacheBytes &&
+				evictableTemplates.size()>1 )
+		{
+			String lru = (String)evictableTemplates.keySet().iterator().next();
+			if ( lru.equals(name) ) {
+				break;
+			}
+			invalidateTemplate(lru);
+			templateCacheEvictions++;
+		}
+	}
+
+	/** A rough guess at the bytes kept alive by a compiled template: its
+	 *  pattern plus the chunks, their ASTs and literal strings.  Inherited
+	 *  templates share chunks with the supergroup's but are counted anyway.
+	 */
+	protected long estimateRetainedSize(StringTemplate st) {
+		long size = 64;
+		String pattern = st.getTemplate();
+		if ( pattern!=null ) {
+			size += 40 + 2*pattern.length();
+		}
+		List chunks = st.getChunks();
+		if ( chunks!=null ) {
+			for (int i = 0; i < chunks.size(); i++) {
+				Object chunk = chunks.get(i);
+				if ( chunk instanceof StringRef ) {
+					size += 40 + 2*chunk.toString().length();
+				}
+				else {
+					size += 200; // expr + AST nodes
+				}
+			}
+		}
+		return size;
+	}
+
+	/** Bound the loaded (not defined in code) templates of this group by
+	 *  estimated retained bytes; 0 means no bound (default).
+	 */
+	public synchronized void setMaxTemplateCacheSize(long bytes) {
+		this.maxTemplateCacheBytes = bytes;
+	}
+
+	public synchronized long getMaxTemplateCacheSize() {
+		return maxTemplateCacheBytes;
+	}
+
+	/** Estimated bytes retained by the evictable templates */
+	public synchronized long getTemplateCacheSize() {
+		return templateCacheBytes;
+	}
+
+	public synchronized int getTemplateCacheHits() {
+		return templateCacheHits;
+	}
+
+	/** How many lookups had to load or inherit the template */
+	public synchronized int getTemplateCacheMisses() {
+		return templateCacheMisses;
+	}
+
+	public synchronized int getTemplateCacheEvictions() {
+		return templateCacheEvictions;
+	}
+
+	public synchronized String getTemplateCacheStats() {
+		return getName()+": "+evictableTemplates.size()+" cached templates, "+
+			   templateCacheBytes+" bytes, "+templateCacheHits+" hits, "+
+			   templateCacheMisses+" misses, "+templateCacheEvictions+
+			   " evictions";
+	}
+
+	/** The file beneath rootDir that holds fileName or null if templates
+	 *  come from the CLASSPATH.
+	 */
+	protected File getTemplateFile(String fileName) {
+		if ( rootDir==null ) {
+			return null;
+		}
+		return new File(rootDir+"/"+fileName);
+	}
+
 	protected StringTemplate loadTemplate(String name, BufferedReader r)
 			throws IOException
 	{
+		String pattern = readTemplatePattern(r);
+		if ( pattern.length()==0 ) {
+			error("no text in template '"+name+"'");
+			return null;
+		}
+		return defineTemplate(name, pattern);
+	}
+
+	/** Read the text of a template file; lines end with the platform
+	 *  line separator and surrounding whitespace is trimmed.
+	 */
+	protected String readTemplatePattern(BufferedReader r) throws IOException {
 		String line;
 		String nl = System.getProperty("line.separator");
 		StringBuffer buf = new StringBuffer(300);
@@ -545,12 +890,288 @@ public class StringTemplateGroup {
 		}
 		// strip newlines etc.. from front/back since filesystem
 		// may add newlines etc...
-		String pattern = buf.toString().trim();
+		return buf.toString().trim();
+	}
+
+	/** Load and compile every template in this group now rather than on
+	 *  first use.  See precompileAll(Executor, boolean).
+	 */
+	public int precompileAll(Executor executor) {
+		return precompileAll(executor, false);
+	}
+
+	/** Precompile every template beneath rootDir; for a CLASSPATH group
+	 *  that's nothing, see precompileAll(Executor, boolean, String).
+	 */
+	public int precompileAll(Executor executor, boolean warmUp) {
+		return precompileAll(executor, warmUp, null);
+	}
+
+	/** Find every template file beneath rootDir whose name (relative to
+	 *  rootDir) starts with resourcePrefix and read and compile them in
+	 *  parallel on executor, waiting until they're all done.  A CLASSPATH
+	 *  group can't tell its templates from everyone else's so it only
+	 *  compiles resources under resourcePrefix (e.g., "org/foo/templates/")
+	 *  and nothing if that's null.  Compilation happens outside the group
+	 *  lock; each template is installed only if a lookup didn't beat us
+	 *  to it.  For a group file, compile the templates whose compilation
+	 *  was put off (see the entryPoints ctor).
+	 *
+	 *  If warmUp, also render each template once with no attributes to a
+	 *  discarded writer, which loads everything it includes and gets the
+	 *  JIT and property caches going.  Errors from warm-up renders are
+	 *  ignored rather than sent to the group's error listener.
+	 *
+	 *  Returns how many templates were compiled.
+	 */
+	public int precompileAll(Executor executor,
+							 final boolean warmUp,
+							 String resourcePrefix)
+	{
+		final AtomicInteger compiled = new AtomicInteger();
+		List fileNames = new ArrayList();
+		if ( templatesDefinedInGroupFile ) {
+			compiled.addAndGet(compileUncompiledTemplates());
+		}
+		else {
+			fileNames = getTemplateFileNames(resourcePrefix);
+		}
+		runInParallel(executor, fileNames, new TemplateTask() {
+			public void run(String fileName) {
+				if ( precompileTemplate(fileName) ) {
+					compiled.incrementAndGet();
+				}
+			}
+		});
+		if ( warmUp ) {
+			List names;
+			synchronized (this) {
+				names = new ArrayList(templates.keySet());
+			}
+			runInParallel(executor, names, new TemplateTask() {
+				public void run(String name) {
+					warmUpTemplate(name);
+				}
+			});
+		}
+		return compiled.get();
+	}
+
+	/** Something to do for each template (file) name */
+	protected interface TemplateTask {
+		void run(String name);
+	}
+
+	/** Split names into a few chunks per processor and run task on each
+	 *  name on executor.  Return when all are done.
+	 */
+	protected void runInParallel(Executor executor,
+								 final List names,
+								 final TemplateTask task)
+	{
+		int n = names.size();
+		if ( n==0 ) {
+			return;
+		}
+		int nChunks = Math.min(n, Runtime.getRuntime().availableProcessors()*4);
+		final CountDownLatch done = new CountDownLatch(nChunks);
+		for (int c=0; c<nChunks; c++) {
+			final int from = c*n/nChunks;
+			final int to = (c+1)*n/nChunks;
+			Runnable chunk = new Runnable() {
+				public void run() {
+					try {
+						for (int i=from; i<to; i++) {
+							try {
+								task.run((String)names.get(i));
+							}
+							catch (RuntimeException e) {
+								error("problem precompiling "+names.get(i), e);
+							}
+						}
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			};
+			try {
+				executor.execute(chunk);
+			}
+			catch (RejectedExecutionException ree) {
+				chunk.run(); // do it ourselves
+			}
+		}
+		try {
+			done.await();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Return the file names (relative to rootDir or the CLASSPATH; e.g.,
+	 *  "sub/t.st") of the templates this group can load that start with
+	 *  prefix (any if null).  For a CLASSPATH group that's the .st
+	 *  resources under prefix the context class loader's
+	 *  TemplateResourceIndex knows about, or none if prefix is null.
+	 */
+	protected List getTemplateFileNames(String prefix) {
+		List fileNames = new ArrayList();
+		if ( rootDir!=null ) {
+			findTemplateFiles(new File(rootDir), "", fileNames);
+		}
+		else if ( prefix!=null ) {
+			ClassLoader cl = Thread.currentThread().getContextClassLoader();
+			fileNames = TemplateResourceIndex.getIndex(cl).getResourceNames(".st");
+		}
+		if ( prefix!=null ) {
+			List matching = new ArrayList();
+			for (int i=0; i<fileNames.size(); i++) {
+				String fileName = (String)fileNames.get(i);
+				if ( fileName.startsWith(prefix) ) {
+					matching.add(fileName);
+				}
+			}
+			fileNames = matching;
+		}
+		return fileNames;
+	}
+
+	protected void findTemplateFiles(File dir, String prefix, List fileNames) {
+		File[] files = dir.listFiles();
+		if ( files==null ) {
+			return;
+		}
+		for (int i=0; i<files.length; i++) {
+			File f = files[i];
+			if ( f.isDirectory() ) {
+				findTemplateFiles(f, prefix+f.getName()+"/", fileNames);
+			}
+			else if ( f.getName().endsWith(".st") ) {
+				fileNames.add(prefix+f.getName());
+			}
+		}
+	}
+
+	/** Read and compile fileName beneath rootDir without holding the lock
+	 *  and install it, and any regions it defines, unless they're already
+	 *  there.  Return true if we installed a new template.
+	 */
+	protected boolean precompileTemplate(String fileName) {
+		String name = getTemplateNameFromFileName(fileName);
+		synchronized (this) {
+			Object st = templates.get(name);
+			if ( st!=null && st!=NOT_FOUND_ST ) {
+				return false;
+			}
+		}
+		File file = getTemplateFile(fileName);
+		java.net.URL url = null;
+		if ( file==null ) {
+			url = getResource(fileName);
+			if ( url==null ) {
+				return false;
+			}
+			if ( url.getProtocol().equals("file") ) {
+				file = TemplateResourceIndex.fileOf(url);
+			}
+		}
+		long lastModified = file!=null ? file.lastModified() : 0;
+		String pattern = null;
+		if ( url==null ) {
+			pattern = readTemplatePattern(file);
+			if ( pattern==null ) {
+				error("Problem reading template file: "+fileName);
+				return false;
+			}
+		}
+		else {
+			BufferedReader br = null;
+			try {
+				br = new BufferedReader(getInputStreamReader(url.openStream()));
+				pattern = readTemplatePattern(br);
+			}
+			catch (IOException ioe) {
+				error("Problem reading template file: "+fileName, ioe);
+				return false;
+			}
+			finally {
+				if ( br!=null ) {
+					try {
+						br.close();
+					}
+					catch (IOException ioe2) {
+						error("Cannot close template file: "+fileName, ioe2);
+					}
+				}
+			}
+		}
 		if ( pattern.length()==0 ) {
 			error("no text in template '"+name+"'");
-			return null;
+			return false;
+		}
+		StringTemplate st = createStringTemplate();
+		st.setName(LiteralPool.intern(name));
+		st.setGroup(this);
+		st.setNativeGroup(this);
+		st.setErrorListener(listener);
+		Map regions = new LinkedHashMap();
+		stagedRegions.set(regions);
+		try {
+			st.setTemplate(pattern); // the expensive part
+		}
+		finally {
+			stagedRegions.remove();
+		}
+		synchronized (this) {
+			Object current = templates.get(name);
+			if ( current!=null && current!=NOT_FOUND_ST ) {
+				return false;
+			}
+			templates.put(name, st);
+			templateSources.put(name,
+				new TemplateSource(file, lastModified, refreshEpoch));
+			cacheTemplate(name, st);
+			// don't clobber regions another thread defined meanwhile
+			Iterator it = regions.entrySet().iterator();
+			while ( it.hasNext() ) {
+				Map.Entry e = (Map.Entry)it.next();
+				Object r = templates.get(e.getKey());
+				if ( r==null || r==NOT_FOUND_ST ) {
+					templates.put(e.getKey(), e.getValue());
+					templateSources.put(e.getKey(),
+						new TemplateSource(null, 0, refreshEpoch));
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Render template name once with no attributes, ignoring output */
+	protected void warmUpTemplate(String name) {
+		StringTemplate st;
+		synchronized (this) {
+			compileIfUncompiled(name);
+			st = (StringTemplate)templates.get(name);
+		}
+		if ( st==null || st==NOT_FOUND_ST || st.isRegion() ) {
+			return;
+		}
+		Writer discard = new Writer() {
+			public void write(char[] cbuf, int off, int len) { }
+			public void flush() { }
+			public void close() { }
+		};
+		RenderContext quiet = new RenderContext();
+		quiet.setErrorListener(SILENT_ERROR_LISTENER);
+		try {
+			st.getInstanceOf().write(getStringTemplateWriter(discard), quiet);
+		}
+		catch (Exception e) {
+			// missing attributes etc... are expected; we just want the
+			// templates loaded and code paths warmed up
 		}
-		return defineTemplate(name, pattern);
 	}
 
 	/** Load a template whose name is derived from the template filename.
@@ -564,19 +1185,24 @@ public class StringTemplateGroup {
 		String name = getTemplateNameFromFileName(fileName);
 		// if no rootDir, try to load as a resource in CLASSPATH
 		if ( rootDir==null ) {
-			ClassLoader cl = Thread.currentThread().getContextClassLoader();
-			InputStream is = cl.getResourceAsStream(fileName);
-			if ( is==null ) {
-				cl = this.getClass().getClassLoader();
-				is = cl.getResourceAsStream(fileName);
-			}
-			if ( is==null ) {
+			java.net.URL url = getResource(fileName);
+			if ( url==null ) {
 				return null;
 			}
+			// exploded resource dirs can be watched like rootDir files
+			File file = null;
+			if ( url.getProtocol().equals("file") ) {
+				file = TemplateResourceIndex.fileOf(url);
+			}
+			long lastModified = file!=null ? file.lastModified() : 0;
 			BufferedReader br = null;
 			try {
-				br = new BufferedReader(getInputStreamReader(is));
+				br = new BufferedReader(getInputStreamReader(url.openStream()));
 				template = loadTemplate(name, br);
+				if ( template!=null ) {
+					templateSources.put(name,
+						new TemplateSource(file, lastModified, refreshEpoch));
+				}
 			}
 			catch (IOException ioe) {
 				error("Problem reading template file: "+fileName,ioe);
@@ -594,10 +1220,35 @@ public class StringTemplateGroup {
 			return template;
 		}
 		// load via rootDir
+		File file = getTemplateFile(fileName);
+		long lastModified = file.lastModified();
 		template = loadTemplate(name, rootDir+"/"+fileName);
+		if ( template!=null ) {
+			templateSources.put(name,
+				new TemplateSource(file, lastModified, refreshEpoch));
+		}
 		return template;
 	}
 
+	/** Find a resource via the context class loader then the class loader
+	 *  that loaded this class.  Resources that aren't in a loader's
+	 *  TemplateResourceIndex are skipped without asking the loader.
+	 */
+	protected java.net.URL getResource(String fileName) {
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		java.net.URL url = null;
+		if ( TemplateResourceIndex.getIndex(cl).mightContain(fileName) ) {
+			url = cl.getResource(fileName);
+		}
+		if ( url==null ) {
+			cl = this.getClass().getClassLoader();
+			if ( TemplateResourceIndex.getIndex(cl).mightContain(fileName) ) {
+				url = cl.getResource(fileName);
+			}
+		}
+		return url;
+	}
+
 	/** (public so that people can override behavior; not a general
 	 *  purpose method)
 	 */
@@ -620,27 +1271,65 @@ public class StringTemplateGroup {
 
 	protected StringTemplate loadTemplate(String name, String fileName)
 	{
-		BufferedReader br = null;
-		StringTemplate template = null;
+		String pattern = readTemplatePattern(new File(fileName));
+		if ( pattern==null ) {
+			return null; // can't read it; usually it's not there
+		}
+		if ( pattern.length()==0 ) {
+			error("no text in template '"+name+"'");
+			return null;
+		}
+		return defineTemplate(name, pattern);
+	}
+
+	/** Read the text of a template file in one go using NIO.  Returns
+	 *  null if the file can't be read.
+	 */
+	protected String readTemplatePattern(File file) {
 		try {
-			InputStream fin = new FileInputStream(fileName);
-			InputStreamReader isr = getInputStreamReader(fin);
-			br = new BufferedReader(isr);
-			template = loadTemplate(name, br);
-			br.close();
-			br = null;
+			return readTemplatePattern(CharBufferReader.decode(file, fileCharEncoding));
 		}
 		catch (IOException ioe) {
-			if ( br!=null ) {
-				try {
-					br.close();
-				}
-				catch (IOException ioe2) {
-					error("Cannot close template file: "+fileName);
+			return null;
+		}
+		catch (IllegalArgumentException iae) {
+			error("Invalid file character encoding: "+fileCharEncoding);
+			return null;
+		}
+	}
+
+	/** Same as readTemplatePattern(BufferedReader) but in one pass over
+	 *  decoded text without making a String per line: trim, then turn
+	 *  \n, \r and \r\n into the platform line separator.
+	 */
+	protected String readTemplatePattern(CharBuffer text) {
+		String nl = System.getProperty("line.separator");
+		int start = text.position();
+		int end = text.limit();
+		// newlines are whitespace so trimming first gives the same result
+		while ( start<end && text.get(start)<=' ' ) start++;
+		while ( end>start && text.get(end-1)<=' ' ) end--;
+		boolean needsWork = !nl.equals("\n");
+		for (int i=start; i<end && !needsWork; i++) {
+			needsWork = text.get(i)=='\r';
+		}
+		if ( !needsWork ) {
+			return text.subSequence(start-text.position(), end-text.position()).toString();
+		}
+		StringBuffer buf = new StringBuffer(end-start+16);
+		for (int i=start; i<end; i++) {
+			char c = text.get(i);
+			if ( c=='\r' || c=='\n' ) {
+				buf.append(nl);
+				if ( c=='\r' && i+1<end && text.get(i+1)=='\n' ) {
+					i++;
 				}
 			}
+			else {
+				buf.append(c);
+			}
 		}
-		return template;
+		return buf.toString();
 	}
 
 	protected InputStreamReader getInputStreamReader(InputStream in) {
@@ -672,13 +1361,23 @@ public class StringTemplateGroup {
 		if ( name!=null && name.indexOf('.')>=0 ) {
 			throw new IllegalArgumentException("cannot have '.' in template names");
 		}
+		name = LiteralPool.intern(name);
 		StringTemplate st = createStringTemplate();
 		st.setName(name);
 		st.setGroup(this);
 		st.setNativeGroup(this);
 		st.setTemplate(template);
 		st.setErrorListener(listener);
+		Map staged = (Map)stagedRegions.get();
+		if ( staged!=null ) {
+			staged.put(name, st); // precompileTemplate() installs it
+			return st;
+		}
 		templates.put(name, st);
+		if ( !templatesDefinedInGroupFile ) {
+			// defined in code; loaders record the file afterwards
+			templateSources.put(name, new TemplateSource(null, 0, refreshEpoch));
+		}
 		return st;
 	}
 
@@ -733,7 +1432,7 @@ public class StringTemplateGroup {
 	public String getMangledRegionName(String enclosingTemplateName,
 									   String name)
 	{
-		return "region__"+enclosingTemplateName+"__"+name;
+		return LiteralPool.intern("region__"+enclosingTemplateName+"__"+name);
 	}
 
 	/** Return "t" from "region__t__foo" */
@@ -751,6 +1450,7 @@ public class StringTemplateGroup {
 			return null;
 		}
 		templates.put(name, targetST);
+		templateSources.put(name, new TemplateSource(null, 0, refreshEpoch));
 		return targetST;
 	}
 
@@ -770,6 +1470,7 @@ public class StringTemplateGroup {
 
 	/** Get the ST for 'name' in this group only */
 	public synchronized StringTemplate getTemplateDefinition(String name) {
+		compileIfUncompiled(name);
 		return (StringTemplate)templates.get(name);
 	}
 
@@ -801,6 +1502,226 @@ public class StringTemplateGroup {
 		}
 	}
 
+	/** Re-read a group file into this group.  Template and map
+	 *  definitions whose text (and for templates, formal arguments) did
+	 *  not change keep their already compiled StringTemplate objects;
+	 *  only new or edited definitions are compiled.  Templates inherited
+	 *  from the supergroup are looked up again.  Instances already
+	 *  handed out keep rendering with the definitions they were made from.
+	 *  If the file has syntax errors, the group is left as it was.
+	 */
+	public synchronized void reload(Reader r) {
+		if ( !templatesDefinedInGroupFile ) {
+			error("cannot reload group "+getName()+"; it is not a group file");
+			return;
+		}
+		Map oldTemplates = templates;
+		Map oldMaps = maps;
+		Set oldUncompiled = uncompiledTemplates;
+		List oldInterfaces = interfaces;
+		String oldName = name;
+		StringTemplateGroup oldSuperGroup = superGroup;
+		previousTemplates = oldTemplates;
+		previousMaps = oldMaps;
+		previousUncompiled = oldUncompiled;
+		templates = new HashMap();
+		maps = new HashMap();
+		definitionsChanged();
+		interfaces = null;
+		if ( entryPoints!=null ) {
+			uncompiledTemplates = new HashSet();
+		}
+		boolean ok = false;
+		try {
+			ok = reparseGroup(r);
+		}
+		finally {
+			previousTemplates = null;
+			previousMaps = null;
+			previousUncompiled = null;
+			if ( !ok ) {
+				templates = oldTemplates;
+				maps = oldMaps;
+				uncompiledTemplates = oldUncompiled;
+				interfaces = oldInterfaces;
+				name = oldName;
+				superGroup = oldSuperGroup;
+			}
+			definitionsChanged();
+		}
+		if ( !ok ) {
+			error("group "+getName()+" not reloaded; keeping previous definitions");
+			return;
+		}
+		if ( entryPoints!=null ) {
+			compileReachableTemplates(entryPoints);
+		}
+		verifyInterfaceImplementations();
+	}
+
+	/** Like parseGroup() but return false if the file had syntax errors */
+	protected boolean reparseGroup(Reader r) {
+		final boolean[] failed = new boolean[1];
+		try {
+			GroupLexer lexer = new GroupLexer(r);
+			GroupParser parser = new GroupParser(lexer) {
+				public void reportError(antlr.RecognitionException e) {
+					failed[0] = true;
+					super.reportError(e);
+				}
+			};
+			parser.group(this);
+			if ( parser.LA(1)!=antlr.Token.EOF_TYPE ) {
+				error("problem parsing group "+getName()+": unexpected "+
+					  parser.LT(1).getText()+" at line "+parser.LT(1).getLine());
+				return false;
+			}
+		}
+		catch (Exception e) {
+			error("problem parsing group "+getName()+": "+e, e);
+			return false;
+		}
+		return !failed[0];
+	}
+
+	/** Called by the group file parser to set the text of template st,
+	 *  which it just defined.  During reload(), if the previous definition
+	 *  had the same text and formal arguments, put that compiled template
+	 *  back instead of compiling the text again.  Templates with regions
+	 *  are always recompiled as compiling them defines the region
+	 *  templates.
+	 */
+	public synchronized void defineTemplatePattern(StringTemplate st,
+												   String template)
+	{
+		if ( previousTemplates!=null && !st.isRegion() &&
+			 templates.get(st.getName())==st &&
+			 (previousUncompiled==null ||
+			  !previousUncompiled.contains(st.getName())) )
+		{
+			StringTemplate old =
+				(StringTemplate)previousTemplates.get(st.getName());
+			if ( old!=null && old!=NOT_FOUND_ST &&
+				 old.getNativeGroup()==this && !old.isRegion() &&
+				 old.getRegionNames()==null &&
+				 template.equals(old.getTemplate()) &&
+				 sameFormalArguments(old.getFormalArguments(),
+									 st.getFormalArguments()) )
+			{
+				old.setGroupFileLine(st.getGroupFileLine());
+				templates.put(st.getName(), old);
+				return;
+			}
+		}
+		if ( uncompiledTemplates!=null && templates.get(st.getName())==st ) {
+			st.setUncompiledTemplate(template); // compile on first use
+			uncompiledTemplates.add(st.getName());
+			return;
+		}
+		st.setTemplate(template);
+	}
+
+	/** Compile template name if its pattern was set aside at load time */
+	protected synchronized void compileIfUncompiled(String name) {
+		if ( uncompiledTemplates!=null && uncompiledTemplates.remove(name) ) {
+			StringTemplate st = (StringTemplate)templates.get(name);
+			st.breakTemplateIntoChunks();
+		}
+	}
+
+	/** Compile every template whose pattern was set aside at load time;
+	 *  return how many there were.
+	 */
+	protected synchronized int compileUncompiledTemplates() {
+		if ( uncompiledTemplates==null ) {
+			return 0;
+		}
+		List names = new ArrayList(uncompiledTemplates);
+		for (int i=0; i<names.size(); i++) {
+			compileIfUncompiled((String)names.get(i));
+		}
+		return names.size();
+	}
+
+	/** Compile the templates in this group reachable from names by direct
+	 *  invocation.  Templates found in the supergroup are left to it.
+	 */
+	protected synchronized void compileReachableTemplates(Collection names) {
+		LinkedList work = new LinkedList(names);
+		Set seen = new HashSet();
+		while ( work.size()>0 ) {
+			String name = (String)work.removeFirst();
+			if ( !seen.add(name) ) {
+				continue;
+			}
+			StringTemplate st = (StringTemplate)templates.get(name);
+			if ( st==null || st==NOT_FOUND_ST ) {
+				continue;
+			}
+			compileIfUncompiled(name);
+			work.addAll(st.getTemplateReferences());
+		}
+	}
+
+	/** Return the static call graph of the compiled templates defined in
+	 *  this group: template name to the Set of names it invokes directly.
+	 *  Templates not yet compiled (see the entryPoints ctor) are left out.
+	 */
+	public synchronized Map getTemplateCallGraph() {
+		Map graph = new HashMap();
+		Iterator it = templates.keySet().iterator();
+		while ( it.hasNext() ) {
+			String name = (String)it.next();
+			StringTemplate st = (StringTemplate)templates.get(name);
+			if ( st==NOT_FOUND_ST || st.getNativeGroup()!=this ||
+				 (uncompiledTemplates!=null && uncompiledTemplates.contains(name)) )
+			{
+				continue;
+			}
+			graph.put(name, st.getTemplateReferences());
+		}
+		return graph;
+	}
+
+	protected boolean sameFormalArguments(Map a, Map b) {
+		if ( a==null || b==null ) {
+			return a==b;
+		}
+		if ( a.size()!=b.size() ) {
+			return false;
+		}
+		Iterator ia = a.values().iterator();
+		Iterator ib = b.values().iterator();
+		while ( ia.hasNext() ) {
+			FormalArgument fa = (FormalArgument)ia.next();
+			FormalArgument fb = (FormalArgument)ib.next();
+			if ( !fa.name.equals(fb.name) ) {
+				return false;
+			}
+			if ( !sameTemplate(fa.defaultValueST, fb.defaultValueST) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Same pattern and same attributes (string default values are
+	 *  "$_val_$" with the string as an attribute)?
+	 */
+	protected boolean sameTemplate(StringTemplate a, StringTemplate b) {
+		if ( a==null || b==null ) {
+			return a==b;
+		}
+		if ( a.getTemplate()==null || // pattern discarded
+			 !a.getTemplate().equals(b.getTemplate()) )
+		{
+			return false;
+		}
+		Map aa = a.getAttributes();
+		Map ba = b.getAttributes();
+		return aa==null ? ba==null : aa.equals(ba);
+	}
+
 	/** verify that this group satisfies its interfaces */
 	protected void verifyInterfaceImplementations() {
 		for (int i = 0; interfaces!=null && i < interfaces.size(); i++) {
@@ -833,6 +1754,20 @@ public class StringTemplateGroup {
 		this.refreshIntervalInSeconds = refreshInterval;
 	}
 
+	/** Have templates compiled from now on forget their pattern text,
+	 *  keeping only the compiled chunks.  getTemplate() then returns null
+	 *  for them, toString() can't show them and reload() recompiles even
+	 *  unchanged templates.  The memory saved shows up in
+	 *  LiteralPool.getBytesSaved().
+	 */
+	public void setDiscardTemplatePatterns(boolean discard) {
+		this.discardTemplatePatterns = discard;
+	}
+
+	public boolean isDiscardingTemplatePatterns() {
+		return discardTemplatePatterns;
+	}
+
 	public void setErrorListener(StringTemplateErrorListener listener) {
 		this.listener = listener;
 	}
@@ -871,10 +1806,13 @@ public class StringTemplateGroup {
 
 	/** Specify a complete map of what object classes should map to which
 	 *  renderer objects for every template in this group (that doesn't
-	 *  override it per template).
+	 *  override it per template).  The map is copied; use
+	 *  registerRenderer() to change it afterwards.
 	 */
 	public void setAttributeRenderers(Map renderers) {
-		this.attributeRenderers = renderers;
+		this.attributeRenderers = renderers!=null ?
+			Collections.synchronizedMap(new HashMap(renderers)) : null;
+		definitionsChanged();
 	}
 
 	/** Register a renderer for all objects of a particular type for all
@@ -885,29 +1823,116 @@ public class StringTemplateGroup {
 			attributeRenderers = Collections.synchronizedMap(new HashMap());
 		}
 		attributeRenderers.put(attributeClassType, renderer);
+		definitionsChanged();
 	}
 
 	/** What renderer is registered for this attributeClassType for
-	 *  this group?  If not found, as superGroup if it has one.
+	 *  this group?  If not found, as superGroup if it has one.  A renderer
+	 *  registered for a superclass or interface of attributeClassType
+	 *  applies too; see resolveRenderer().  The answer is cached per class.
 	 */
 	public AttributeRenderer getAttributeRenderer(Class attributeClassType) {
-		if ( attributeRenderers==null ) {
-			if ( superGroup==null ) {
-				return null; // no renderers and no parent?  Stop.
+		if ( attributeClassType==null ) {
+			return null;
+		}
+		LookupTables t = getLookupTables();
+		Object renderer = t.resolvedRenderers.get(attributeClassType);
+		if ( renderer==null ) {
+			renderer = resolveRenderer(t.renderers, attributeClassType);
+			if ( renderer==null ) {
+				renderer = NO_RENDERER;
 			}
-			// no renderers; consult super group
-			return superGroup.getAttributeRenderer(attributeClassType);
+			t.resolvedRenderers.put(attributeClassType, renderer);
 		}
+		return renderer==NO_RENDERER ? null : (AttributeRenderer)renderer;
+	}
 
-		AttributeRenderer renderer =
-			(AttributeRenderer)attributeRenderers.get(attributeClassType);
-		if ( renderer==null ) {
-			if ( superGroup!=null ) {
-				// no renderer registered for this class, check super group
-				renderer = superGroup.getAttributeRenderer(attributeClassType);
+	/** Find the renderer in renderers for c: one registered for c itself,
+	 *  else for its nearest superclass, else for the first interface found
+	 *  walking up from c (breadth first), else for Object.
+	 */
+	public static AttributeRenderer resolveRenderer(Map renderers, Class c) {
+		if ( renderers==null || renderers.size()==0 || c==null ) {
+			return null;
+		}
+		Object renderer = renderers.get(c);
+		if ( renderer!=null ) {
+			return (AttributeRenderer)renderer;
+		}
+		for (Class s = c.getSuperclass(); s!=null && s!=Object.class; s = s.getSuperclass()) {
+			renderer = renderers.get(s);
+			if ( renderer!=null ) {
+				return (AttributeRenderer)renderer;
+			}
+		}
+		LinkedList work = new LinkedList();
+		Set seen = new HashSet();
+		for (Class s = c; s!=null; s = s.getSuperclass()) {
+			work.addAll(Arrays.asList(s.getInterfaces()));
+		}
+		while ( work.size()>0 ) {
+			Class i = (Class)work.removeFirst();
+			if ( !seen.add(i) ) {
+				continue;
+			}
+			renderer = renderers.get(i);
+			if ( renderer!=null ) {
+				return (AttributeRenderer)renderer;
+			}
+			work.addAll(Arrays.asList(i.getInterfaces()));
+		}
+		if ( c.isInterface() || c.isArray() || c.isPrimitive() ) {
+			return null;
+		}
+		return (AttributeRenderer)renderers.get(Object.class);
+	}
+
+	/** Note that this group's renderers, maps or supergroup changed */
+	protected void definitionsChanged() {
+		definitionGeneration.incrementAndGet();
+		hierarchyGeneration.incrementAndGet();
+	}
+
+	/** Get the flattened renderers and maps, rebuilding them if this
+	 *  group or any supergroup changed since.  Unless some group changed
+	 *  since they were last checked, that's a single comparison.
+	 */
+	protected LookupTables getLookupTables() {
+		LookupTables t = lookupTables;
+		int checked = hierarchyGeneration.get();
+		if ( t!=null && t.checkedGeneration==checked ) {
+			return t;
+		}
+		int generation = definitionGeneration.get();
+		StringTemplateGroup sup = superGroup;
+		LookupTables superTables = sup!=null ? sup.getLookupTables() : null;
+		if ( t!=null && t.generation==generation && t.superTables==superTables ) {
+			t.checkedGeneration = checked;
+			return t;
+		}
+		t = new LookupTables();
+		t.generation = generation;
+		t.checkedGeneration = checked;
+		t.superTables = superTables;
+		if ( superTables!=null ) {
+			t.renderers = new HashMap(superTables.renderers);
+			t.maps = new HashMap(superTables.maps);
+		}
+		else {
+			t.renderers = new HashMap();
+			t.maps = new HashMap();
+		}
+		Map renderers = attributeRenderers;
+		if ( renderers!=null ) {
+			synchronized (renderers) {
+				t.renderers.putAll(renderers);
 			}
 		}
-		return renderer;
+		if ( maps!=null ) {
+			t.maps.putAll(maps);
+		}
+		lookupTables = t;
+		return t;
 	}
 
 	/*
@@ -923,24 +1948,49 @@ public class StringTemplateGroup {
 	*/
 
 	public Map getMap(String name) {
-		if ( maps==null ) {
-			if ( superGroup==null ) {
-				return null;
-			}
-			return superGroup.getMap(name);
-		}
-		Map m = (Map)maps.get(name);
-		if ( m==null && superGroup!=null ) {
-			m = superGroup.getMap(name);
-		}
-		return m;
+		return (Map)getLookupTables().maps.get(name);
 	}
 
 	/** Define a map for this group; not thread safe...do not keep adding
 	 *  these while you reference them.
 	 */
 	public void defineMap(String name, Map mapping) {
+		if ( previousMaps!=null ) {
+			Map old = (Map)previousMaps.get(name);
+			if ( old!=null && sameMap(old, mapping) ) {
+				mapping = old; // keep old one; nothing changed
+			}
+		}
 		maps.put(name, mapping);
+		definitionsChanged();
+	}
+
+	protected boolean sameMap(Map a, Map b) {
+		if ( !a.keySet().equals(b.keySet()) ) {
+			return false;
+		}
+		Iterator it = a.keySet().iterator();
+		while ( it.hasNext() ) {
+			Object key = it.next();
+			Object av = a.get(key);
+			Object bv = b.get(key);
+			if ( av instanceof StringTemplate && bv instanceof StringTemplate &&
+				 av!=ASTExpr.MAP_KEY_VALUE && bv!=ASTExpr.MAP_KEY_VALUE )
+			{
+				if ( !sameTemplate((StringTemplate)av, (StringTemplate)bv) ) {
+					return false;
+				}
+			}
+			else if ( av instanceof GroupMap.Literal ) {
+				if ( !av.equals(bv) ) {
+					return false;
+				}
+			}
+			else if ( av!=bv ) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public static void registerDefaultLexer(Class lexerClass) {
@@ -983,7 +2033,11 @@ public class StringTemplateGroup {
 	}
 
 	public void error(String msg, Exception e) {
-		if ( listener!=null ) {
+		RenderContext context = RenderContext.getCurrent();
+		if ( context!=null && context.getErrorListener()!=null ) {
+			context.getErrorListener().error(msg,e);
+		}
+		else if ( listener!=null ) {
 			listener.error(msg,e);
 		}
 		else {
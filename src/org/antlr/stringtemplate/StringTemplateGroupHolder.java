@@ -0,0 +1,117 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.Reader;
+import java.util.Map;
+
+/** Holds the current version of a template group so a live system can
+ *  swap in new templates without anyone seeing a half-updated group.
+ *
+ *  Build and compile a complete new StringTemplateGroup off to the side
+ *  then publish() it.  Templates obtained via getInstanceOf() belong to
+ *  the version that was current when they were created; they and the
+ *  templates they include keep rendering against that version even after
+ *  a newer one is published.  Once nobody references an old version, it
+ *  and its compiled templates and caches are garbage.
+ *
+ *  Don't modify a group after publishing it; build a new one instead.
+ */
+public class StringTemplateGroupHolder {
+	/** A published group and its version number, swapped as one */
+	protected static class Version {
+		public final StringTemplateGroup group;
+		public final int number;
+		public Version(StringTemplateGroup group, int number) {
+			this.group = group;
+			this.number = number;
+		}
+	}
+
+	protected volatile Version current;
+
+	public StringTemplateGroupHolder(StringTemplateGroup group) {
+		publish(group);
+	}
+
+	/** The current version of the group */
+	public StringTemplateGroup getGroup() {
+		return current.group;
+	}
+
+	/** How many times has a group been published?  The group passed to
+	 *  the constructor is version 1.
+	 */
+	public int getVersion() {
+		return current.number;
+	}
+
+	public StringTemplate getInstanceOf(String name) {
+		return current.group.getInstanceOf(name);
+	}
+
+	public StringTemplate getInstanceOf(String name, Map attributes) {
+		return current.group.getInstanceOf(name, attributes);
+	}
+
+	/** Make g the current version.  It also replaces the previous
+	 *  version in the table of groups by name so subgroups loaded from
+	 *  now on inherit from g.  Returns the new version number.
+	 */
+	public synchronized int publish(StringTemplateGroup g) {
+		Version v = current;
+		StringTemplateGroup old = v!=null ? v.group : null;
+		if ( old!=null && old!=g &&
+			 StringTemplateGroup.nameToGroupMap.get(old.getName())==old )
+		{
+			StringTemplateGroup.nameToGroupMap.remove(old.getName());
+		}
+		StringTemplateGroup.nameToGroupMap.put(g.getName(), g);
+		current = new Version(g, v!=null ? v.number+1 : 1);
+		return current.number;
+	}
+
+	/** Parse a new version of a group file and publish it.  The new
+	 *  group gets the current version's lexer, error listener and
+	 *  supergroup unless the file names a different supergroup.  Renders
+	 *  against the current version carry on while the file is parsed,
+	 *  and nobody can find the new group by name until it's published.
+	 */
+	public StringTemplateGroup publish(Reader r) {
+		StringTemplateGroup group = current.group;
+		StringTemplateGroup g =
+			new StringTemplateGroup(r,
+									group.getTemplateLexerClass(),
+									group.getErrorListener(),
+									group.getSuperGroup(),
+									null,
+									false);
+		publish(g);
+		return g;
+	}
+}
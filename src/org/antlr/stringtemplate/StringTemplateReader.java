@@ -0,0 +1,248 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** A Reader that renders a template lazily as the consumer reads it.
+ *  Rendering happens in a separate thread that fills a small, bounded set
+ *  of char segments; when all segments are full the renderer blocks until
+ *  the reader catches up.  At most 2*maxSegments+2 segments are held
+ *  (maxSegments filled, up to maxSegments recycled, the one being filled
+ *  and the one being read), no matter how big the output is.  Use it to pipe output into
+ *  compressors, digests or network channels that pull at their own pace:
+ *
+ *  Reader r = st.openReader();
+ *  ... read from r ...
+ *  r.close();
+ *
+ *  Rendering does not start until the first read.  Closing the reader
+ *  before reaching the end abandons the rendering.  Do not change the
+ *  template's attributes while it is being read.  Errors thrown while
+ *  rendering are reported as an IOException by read().
+ */
+public class StringTemplateReader extends Reader {
+	public static final int DEFAULT_SEGMENT_SIZE = 4096;
+	public static final int DEFAULT_MAX_SEGMENTS = 4;
+
+	/** Put in the filled queue after the last segment */
+	private static final SegmentedWriter.Segment EOF =
+		new SegmentedWriter.Segment(new char[0], 0, null);
+
+	/** Thrown out of the rendering thread's writes once the reader closes.
+	 *  It's unchecked so that it is not swallowed by the IOException
+	 *  handlers in the evaluator.
+	 */
+	protected static class RenderingAbandoned extends RuntimeException {
+	}
+
+	protected StringTemplate st;
+	protected int lineWidth;
+	protected int segmentSize;
+
+	/** Segments ready to be read; bounded so the renderer blocks */
+	protected BlockingQueue filled;
+
+	/** Empty buffers handed back by the reader so they can be refilled */
+	protected BlockingQueue free;
+
+	protected Thread renderer = null;
+
+	/** The rendering thread renders with this; defaults to the context
+	 *  current when the reader was created.
+	 */
+	protected RenderContext context = RenderContext.getCurrent();
+
+	/** Segment currently being consumed and our position in it */
+	private SegmentedWriter.Segment current = null;
+	private int p = 0;
+
+	protected volatile boolean closed = false;
+
+	/** Set by the rendering thread if the template could not be written */
+	protected volatile Throwable failure = null;
+
+	public StringTemplateReader(StringTemplate st) {
+		this(st, StringTemplateWriter.NO_WRAP);
+	}
+
+	public StringTemplateReader(StringTemplate st, int lineWidth) {
+		this(st, lineWidth, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+	}
+
+	public StringTemplateReader(StringTemplate st,
+								int lineWidth,
+								int segmentSize,
+								int maxSegments)
+	{
+		this.free = SegmentedWriter.newSegmentQueue(segmentSize, maxSegments);
+		this.filled = new ArrayBlockingQueue(maxSegments);
+		this.st = st;
+		this.lineWidth = lineWidth;
+		this.segmentSize = segmentSize;
+	}
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if ( closed ) {
+			throw new IOException("reader closed");
+		}
+		if ( len==0 ) {
+			return 0;
+		}
+		if ( renderer==null ) {
+			startRendering();
+		}
+		if ( current==null || p>=current.n ) {
+			if ( current!=null && current!=EOF ) {
+				free.offer(current.buf); // let renderer reuse it
+			}
+			current = nextSegment();
+			p = 0;
+			if ( current==EOF ) {
+				if ( failure!=null ) {
+					IOException ioe =
+						new IOException("can't render template "+st.getName());
+					ioe.initCause(failure);
+					throw ioe;
+				}
+				return -1;
+			}
+		}
+		int n = Math.min(len, current.n-p);
+		System.arraycopy(current.buf, p, cbuf, off, n);
+		p += n;
+		return n;
+	}
+
+	/** Set the context to render with; call before the first read() */
+	public void setRenderContext(RenderContext context) {
+		this.context = context;
+	}
+
+	public boolean ready() throws IOException {
+		return (current!=null && p<current.n) || !filled.isEmpty();
+	}
+
+	/** Stop reading; if the renderer is still going, abandon it. */
+	public void close() throws IOException {
+		if ( closed ) {
+			return;
+		}
+		closed = true;
+		if ( renderer!=null ) {
+			renderer.interrupt(); // unblock it if waiting on a full queue
+		}
+		filled.clear();
+		current = null;
+	}
+
+	private SegmentedWriter.Segment nextSegment() throws IOException {
+		if ( current==EOF ) {
+			return EOF;
+		}
+		try {
+			return (SegmentedWriter.Segment)filled.take();
+		}
+		catch (InterruptedException ie) {
+			throw new InterruptedIOException("interrupted waiting for template output");
+		}
+	}
+
+	protected void startRendering() {
+		renderer = new Thread(new Runnable() {
+			public void run() {
+				render();
+			}
+		}, "StringTemplate reader for "+st.getName());
+		renderer.setDaemon(true); // don't hold up exit if never closed
+		renderer.start();
+	}
+
+	/** Executed in the rendering thread */
+	protected void render() {
+		SegmentWriter out = new SegmentWriter();
+		try {
+			StringTemplateWriter wr = st.getGroup().getStringTemplateWriter(out);
+			wr.setLineWidth(lineWidth);
+			st.write(wr, context);
+			out.flush();
+		}
+		catch (RenderingAbandoned ra) {
+			if ( closed ) {
+				return; // nobody is listening
+			}
+			failure = ra; // interrupted by somebody else
+		}
+		catch (Throwable t) {
+			failure = t;
+		}
+		try {
+			if ( !closed ) {
+				filled.put(EOF);
+			}
+		}
+		catch (InterruptedException ie) {
+			// closed while waiting to send EOF
+		}
+	}
+
+	/** The writer handed to the rendering thread; packs chars into
+	 *  segments and blocks when the reader falls behind.
+	 */
+	private class SegmentWriter extends SegmentedWriter {
+		SegmentWriter() {
+			super(StringTemplateReader.this.segmentSize,
+				  StringTemplateReader.this.free);
+		}
+
+		/** Hand off whatever we have so far */
+		public void flush() throws IOException {
+			sendPartial();
+		}
+
+		public void close() throws IOException {
+			flush();
+		}
+
+		protected void send(char[] buf, int n) {
+			if ( closed ) {
+				throw new RenderingAbandoned();
+			}
+			try {
+				filled.put(new Segment(buf, n, null));
+			}
+			catch (InterruptedException ie) {
+				throw new RenderingAbandoned();
+			}
+		}
+	}
+}
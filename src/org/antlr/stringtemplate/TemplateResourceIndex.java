@@ -0,0 +1,241 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/** An index of the template resources (.st, .stg, .sti) a class loader can
+ *  see so that looking up a template that doesn't exist doesn't cost a
+ *  scan of the whole CLASSPATH.  Built once per class loader from the
+ *  central directories of its jars (following manifest Class-Path
+ *  entries); directories on the CLASSPATH are not indexed but checked
+ *  directly so templates you add or edit during development are seen.
+ *
+ *  Only URLClassLoaders can be indexed completely.  If a class loader
+ *  in the chain is something else, including the system class loader
+ *  of Java 9 and later, the index is incomplete and mightContain()
+ *  always says yes; getResourceNames() still lists java.class.path.
+ */
+public class TemplateResourceIndex {
+	/** Maps ClassLoader to TemplateResourceIndex; weak so we don't keep
+	 *  class loaders of undeployed apps alive.
+	 */
+	protected static final Map indexes = new WeakHashMap();
+
+	/** Resource names of templates in jars like "org/foo/t.st" */
+	protected Set jarResources = new HashSet();
+
+	/** List of File; CLASSPATH directories */
+	protected List dirs = new ArrayList();
+
+	/** Have we seen every place the class loader might look? */
+	protected boolean complete = true;
+
+	public static TemplateResourceIndex getIndex(ClassLoader cl) {
+		synchronized (indexes) {
+			TemplateResourceIndex index = (TemplateResourceIndex)indexes.get(cl);
+			if ( index==null ) {
+				index = new TemplateResourceIndex(cl);
+				indexes.put(cl, index);
+			}
+			return index;
+		}
+	}
+
+	/** Forget all indexes; jars on the CLASSPATH changed. */
+	public static void clear() {
+		synchronized (indexes) {
+			indexes.clear();
+		}
+	}
+
+	protected TemplateResourceIndex(ClassLoader cl) {
+		Set seen = new HashSet();
+		ClassLoader system = ClassLoader.getSystemClassLoader();
+		for (ClassLoader p = cl; p!=null; p = p.getParent()) {
+			if ( p instanceof URLClassLoader ) {
+				URL[] urls = ((URLClassLoader)p).getURLs();
+				for (int i=0; i<urls.length; i++) {
+					if ( !urls[i].getProtocol().equals("file") ) {
+						complete = false; // can't see inside http: etc...
+						continue;
+					}
+					addPath(fileOf(urls[i]), seen);
+				}
+			}
+			else if ( p==system ) {
+				// newer JVMs' app class loader isn't a URLClassLoader.  List
+				// java.class.path for getResourceNames() but it also serves
+				// modules and agent-appended jars we can't see, so we can't
+				// rule anything out.
+				complete = false;
+				StringTokenizer st =
+					new StringTokenizer(System.getProperty("java.class.path"),
+										File.pathSeparator);
+				while ( st.hasMoreTokens() ) {
+					addPath(new File(st.nextToken()), seen);
+				}
+			}
+			else if ( p!=system.getParent() ) {
+				// the system loader's parent only has the JDK's classes
+				complete = false;
+			}
+		}
+	}
+
+	/** Could cl find resource name?  False means definitely not. */
+	public boolean mightContain(String name) {
+		if ( !complete || jarResources.contains(name) ) {
+			return true;
+		}
+		for (int i=0; i<dirs.size(); i++) {
+			File dir = (File)dirs.get(i);
+			if ( new File(dir, name).isFile() ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/** Return the names of all resources that end in suffix (like
+	 *  ".st") in jars and directories on the CLASSPATH.
+	 */
+	public List getResourceNames(String suffix) {
+		Set names = new LinkedHashSet();
+		Iterator it = jarResources.iterator();
+		while ( it.hasNext() ) {
+			String name = (String)it.next();
+			if ( name.endsWith(suffix) ) {
+				names.add(name);
+			}
+		}
+		for (int i=0; i<dirs.size(); i++) {
+			findFiles((File)dirs.get(i), "", suffix, names);
+		}
+		return new ArrayList(names);
+	}
+
+	protected void findFiles(File dir, String prefix, String suffix, Set names) {
+		File[] files = dir.listFiles();
+		if ( files==null ) {
+			return;
+		}
+		for (int i=0; i<files.length; i++) {
+			File f = files[i];
+			if ( f.isDirectory() ) {
+				findFiles(f, prefix+f.getName()+"/", suffix, names);
+			}
+			else if ( f.getName().endsWith(suffix) ) {
+				names.add(prefix+f.getName());
+			}
+		}
+	}
+
+	protected void addPath(File f, Set seen) {
+		if ( !seen.add(f.getAbsolutePath()) ) {
+			return;
+		}
+		if ( f.isDirectory() ) {
+			dirs.add(f);
+		}
+		else if ( f.isFile() ) {
+			addJar(f, seen);
+		}
+	}
+
+	protected void addJar(File f, Set seen) {
+		JarFile jar = null;
+		try {
+			jar = new JarFile(f);
+			Enumeration entries = jar.entries();
+			while ( entries.hasMoreElements() ) {
+				String name = ((JarEntry)entries.nextElement()).getName();
+				if ( isTemplateResource(name) ) {
+					jarResources.add(name);
+				}
+			}
+			Manifest manifest = jar.getManifest();
+			String classPath = manifest!=null ?
+				manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) :
+				null;
+			if ( classPath!=null ) {
+				StringTokenizer st = new StringTokenizer(classPath);
+				while ( st.hasMoreTokens() ) {
+					// relative to the jar; URL syntax
+					URL url = new URL(f.getParentFile().toURI().toURL(),
+									  st.nextToken());
+					if ( url.getProtocol().equals("file") ) {
+						addPath(fileOf(url), seen);
+					}
+				}
+			}
+		}
+		catch (IOException ioe) {
+			// not a jar or can't read it; the class loader can't either
+		}
+		finally {
+			if ( jar!=null ) {
+				try {
+					jar.close();
+				}
+				catch (IOException ioe2) {
+				}
+			}
+		}
+	}
+
+	protected static boolean isTemplateResource(String name) {
+		return name.endsWith(".st") || name.endsWith(".stg") ||
+			   name.endsWith(".sti");
+	}
+
+	protected static File fileOf(URL url) {
+		try {
+			return new File(url.toURI());
+		}
+		catch (URISyntaxException use) {
+			return new File(url.getPath());
+		}
+		catch (IllegalArgumentException iae) { // e.g., has a host
+			return new File(url.getPath());
+		}
+	}
+}
@@ -30,12 +30,18 @@ package org.antlr.stringtemplate.language;
 import antlr.RecognitionException;
 import antlr.collections.AST;
 import org.antlr.stringtemplate.AttributeRenderer;
+import org.antlr.stringtemplate.AutoIndentWriter;
+import org.antlr.stringtemplate.NoIndentWriter;
 import org.antlr.stringtemplate.StringTemplate;
 import org.antlr.stringtemplate.StringTemplateGroup;
 import org.antlr.stringtemplate.StringTemplateWriter;
+import org.antlr.stringtemplate.StreamingAttributeRenderer;
+import org.antlr.stringtemplate.FilteringAttributeRenderer;
+import org.antlr.stringtemplate.MemoryMappedMap;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -79,6 +85,16 @@ public class ASTExpr extends Expr {
 		}
 	};
 
+	/** Boxed i/i0 values shared by all iterations so applying a template
+	 *  to a list doesn't allocate two Integers per element.
+	 */
+	protected static final Integer[] INDEXES = new Integer[4097];
+	static {
+		for (int i=0; i<INDEXES.length; i++) {
+			INDEXES[i] = Integer.valueOf(i);
+		}
+	}
+
 	AST exprTree = null;
 
     /** store separator etc... */
@@ -120,6 +136,43 @@ public class ASTExpr extends Expr {
 		return exprTree;
 	}
 
+	/** Add the names of the templates this expression invokes directly
+	 *  (<foo()>, <x:foo()>, also inside anonymous templates and options)
+	 *  to names.  Indirect invocations like <(name)()> can't be seen
+	 *  without evaluating.
+	 */
+	public void getTemplateReferences(Set names) {
+		getTemplateReferences(exprTree, names);
+		if ( options!=null ) {
+			Iterator it = options.values().iterator();
+			while ( it.hasNext() ) {
+				Object o = it.next();
+				if ( o instanceof AST ) {
+					getTemplateReferences((AST)o, names);
+				}
+			}
+		}
+	}
+
+	protected static void getTemplateReferences(AST t, Set names) {
+		for (; t!=null; t = t.getNextSibling()) {
+			if ( t.getType()==ActionEvaluator.INCLUDE ||
+				 t.getType()==ActionEvaluator.TEMPLATE )
+			{
+				AST name = t.getFirstChild();
+				if ( name!=null && name.getType()==ActionEvaluator.ID ) {
+					names.add(name.getText());
+				}
+			}
+			if ( t instanceof StringTemplateAST &&
+				 ((StringTemplateAST)t).getStringTemplate()!=null )
+			{
+				names.addAll(((StringTemplateAST)t).getStringTemplate().getTemplateReferences());
+			}
+			getTemplateReferences(t.getFirstChild(), names);
+		}
+	}
+
     /** To write out the value of an ASTExpr, invoke the evaluator in eval.g
      *  to walk the tree writing out the values.  For efficiency, don't
      *  compute a bunch of strings and then pack them together.  Write out directly.
@@ -246,7 +299,8 @@ public class ASTExpr extends Expr {
 		// keep walking while at least one attribute has values
 		int i = 0; // iteration number from 0
 		while ( true ) {
-			argumentContext = new HashMap();
+			// args plus i, i0
+			argumentContext = new StringKeyMap(numAttributes+2);
 			// get a value for each attribute in list; put into arg context
 			// to simulate template invocation of anonymous template
 			int numEmpty = 0;
@@ -264,8 +318,8 @@ public class ASTExpr extends Expr {
 			if ( numEmpty==numAttributes ) {
 				break;
 			}
-			argumentContext.put(DEFAULT_INDEX_VARIABLE_NAME, new Integer(i+1));
-			argumentContext.put(DEFAULT_INDEX0_VARIABLE_NAME, new Integer(i));
+			argumentContext.put(DEFAULT_INDEX_VARIABLE_NAME, boxIndex(i+1));
+			argumentContext.put(DEFAULT_INDEX0_VARIABLE_NAME, boxIndex(i));
 			StringTemplate embedded = templateToApply.getInstanceOf();
 			embedded.setEnclosingInstance(self);
 			embedded.setArgumentContext(argumentContext);
@@ -314,7 +368,7 @@ public class ASTExpr extends Expr {
                 embedded = embedded.getInstanceOf(); // make new instance
                 embedded.setEnclosingInstance(self);
                 embedded.setArgumentsAST(args);
-                argumentContext = new HashMap();
+                argumentContext = newArgumentContext(embedded);
 				Map formalArgs = embedded.getFormalArguments();
 				boolean isAnonymous =
 					embedded.getName() == StringTemplate.ANONYMOUS_ST_NAME;
@@ -324,8 +378,8 @@ public class ASTExpr extends Expr {
 					argumentContext.put(DEFAULT_ATTRIBUTE_NAME, ithValue);
 	                argumentContext.put(DEFAULT_ATTRIBUTE_NAME_DEPRECATED, ithValue);
 				}
-				argumentContext.put(DEFAULT_INDEX_VARIABLE_NAME, new Integer(i+1));
-				argumentContext.put(DEFAULT_INDEX0_VARIABLE_NAME, new Integer(i));
+				argumentContext.put(DEFAULT_INDEX_VARIABLE_NAME, boxIndex(i+1));
+				argumentContext.put(DEFAULT_INDEX0_VARIABLE_NAME, boxIndex(i));
                 embedded.setArgumentContext(argumentContext);
                 evaluateArguments(embedded);
                 /*
@@ -348,7 +402,7 @@ public class ASTExpr extends Expr {
             " to "+attributeValue);
             */
             embedded = (StringTemplate)templatesToApply.get(0);
-            argumentContext = new HashMap();
+            argumentContext = newArgumentContext(embedded);
 			Map formalArgs = embedded.getFormalArguments();
 			StringTemplateAST args = embedded.getArgumentsAST();
 			setSoleFormalArgumentToIthValue(embedded, argumentContext, attributeValue);
@@ -359,14 +413,25 @@ public class ASTExpr extends Expr {
 				argumentContext.put(DEFAULT_ATTRIBUTE_NAME, attributeValue);
 				argumentContext.put(DEFAULT_ATTRIBUTE_NAME_DEPRECATED, attributeValue);
 			}
-			argumentContext.put(DEFAULT_INDEX_VARIABLE_NAME, new Integer(1));
-			argumentContext.put(DEFAULT_INDEX0_VARIABLE_NAME, new Integer(0));
+			argumentContext.put(DEFAULT_INDEX_VARIABLE_NAME, boxIndex(1));
+			argumentContext.put(DEFAULT_INDEX0_VARIABLE_NAME, boxIndex(0));
             embedded.setArgumentContext(argumentContext);
             evaluateArguments(embedded);
             return embedded;
         }
     }
 
+	protected static Integer boxIndex(int i) {
+		return i<INDEXES.length ? INDEXES[i] : Integer.valueOf(i);
+	}
+
+	/** Room for embedded's args plus it, attr, i and i0 */
+	protected Map newArgumentContext(StringTemplate embedded) {
+		Map formalArgs = embedded.getFormalArguments();
+		int n = formalArgs!=null ? formalArgs.size() : 0;
+		return new StringKeyMap(n+4);
+	}
+
 	protected void setSoleFormalArgumentToIthValue(StringTemplate embedded, Map argumentContext, Object ithValue) {
 		Map formalArgs = embedded.getFormalArguments();
 		if ( formalArgs!=null ) {
@@ -447,6 +512,15 @@ public class ASTExpr extends Expr {
 
         // Special case: if it's a Map then pull using
         // key not the property method.
+        if ( c==GroupMap.class ) {
+            return ((GroupMap)o).lookup(property);
+        }
+        if ( c==MemoryMappedMap.class &&
+             !property.equals("keys") && !property.equals("values") )
+        {
+            // one probe; don't read entries off disk for containsKey()
+            return ((MemoryMappedMap)o).lookup(property);
+        }
         if ( o instanceof Map ) {
             Map map = (Map)o;
 			if ( property.equals("keys") ) {
@@ -678,6 +752,13 @@ public class ASTExpr extends Expr {
         int n = 0;
         try {
             if ( o instanceof StringTemplate ) return writeTemplate(self, o, out);
+            if ( o instanceof GroupMap.Literal ) return writeMapLiteral(self, o, out);
+            if ( o instanceof ArrayWrappedInList && isPlainAutoIndentWriter(out) &&
+                 canWriteNumbersDirectly(self, ((ArrayWrappedInList)o).getArray().getClass().getComponentType()) )
+            {
+                return writeNumberArray(((ArrayWrappedInList)o).getArray(),
+                                        (AutoIndentWriter)out);
+            }
             o = convertAnythingIteratableToIterator(o); // normalize
             if ( o instanceof Iterator ) return writeIterableValue(self, o, out);
             return writePOJO(self, o, out);
@@ -688,10 +769,39 @@ public class ASTExpr extends Expr {
 		return n;
     }
 
+    /** Write a group map's literal value like the template it came from:
+     *  raw unless there's a format to apply.
+     */
+    protected int writeMapLiteral(StringTemplate self, Object o, StringTemplateWriter out) throws IOException {
+        if ( formatString!=null ) {
+            return writePOJO(self, o.toString(), out);
+        }
+        int n = 0;
+        if ( wrapString!=null ) {
+            n = out.writeWrapSeparator(wrapString);
+        }
+        return n + out.write(o.toString());
+    }
+
     protected int writePOJO(StringTemplate self, Object o, StringTemplateWriter out) throws IOException {
         int n = 0;
+        Class c = o.getClass();
+        if ( (c==Integer.class || c==Long.class || c==Double.class) &&
+             isPlainAutoIndentWriter(out) && canWriteNumbersDirectly(self, c) )
+        {
+            // format digits straight into the output; no toString()
+            AutoIndentWriter w = (AutoIndentWriter)out;
+            if ( wrapString!=null ) n = out.writeWrapSeparator(wrapString);
+            if ( c==Double.class ) return n + w.write(((Double)o).doubleValue());
+            return n + w.write(((Number)o).longValue());
+        }
         AttributeRenderer renderer =
-            self.getAttributeRenderer(o.getClass());
+            self.getAttributeRenderer(c);
+        if ( renderer instanceof StreamingAttributeRenderer ) {
+            // renderer writes directly; no temp string
+            if ( wrapString!=null ) n = out.writeWrapSeparator(wrapString);
+            return n + ((StreamingAttributeRenderer)renderer).write(o, formatString, out);
+        }
         String v = null;
         if ( renderer!=null ) {
             if ( formatString != null ) v = renderer.toString(o, formatString);
@@ -703,6 +813,96 @@ public class ASTExpr extends Expr {
         return n;
     }
 
+    /** Can numbers of type c (a wrapper class or primitive array element
+     *  type) be written with AutoIndentWriter.write(long) and friends?
+     *  Only if nobody has asked to see them: no renderer for the boxed
+     *  type and no format option.
+     */
+    protected boolean canWriteNumbersDirectly(StringTemplate self, Class c) {
+        if ( formatString!=null ) return false;
+        if ( c==int.class ) c = Integer.class;
+        else if ( c==long.class ) c = Long.class;
+        else if ( c==double.class ) c = Double.class;
+        else if ( c==float.class ) c = Float.class;
+        else if ( c==short.class ) c = Short.class;
+        else if ( c==byte.class ) c = Byte.class;
+        else if ( c!=Integer.class && c!=Long.class && c!=Double.class ) {
+            return false;
+        }
+        return self.getAttributeRenderer(c)==null;
+    }
+
+    /** Only our own writers take the numeric write() shortcuts; a
+     *  subclass may override write(String) to escape or filter and must
+     *  see every character.
+     */
+    protected static boolean isPlainAutoIndentWriter(StringTemplateWriter out) {
+        Class c = out.getClass();
+        return c==AutoIndentWriter.class || c==NoIndentWriter.class;
+    }
+
+    /** Write the elements of a primitive number array, with separator, as
+     *  writeIterableValue() would but without boxing each element.
+     */
+    protected int writeNumberArray(Object array, AutoIndentWriter out)
+        throws IOException
+    {
+        int n = 0;
+        if ( array instanceof int[] ) {
+            int[] a = (int[])array;
+            for (int i=0; i<a.length; i++) {
+                n += writeElementSeparator(i, out) + out.write(a[i]);
+            }
+        }
+        else if ( array instanceof long[] ) {
+            long[] a = (long[])array;
+            for (int i=0; i<a.length; i++) {
+                n += writeElementSeparator(i, out) + out.write(a[i]);
+            }
+        }
+        else if ( array instanceof double[] ) {
+            double[] a = (double[])array;
+            for (int i=0; i<a.length; i++) {
+                n += writeElementSeparator(i, out) + out.write(a[i]);
+            }
+        }
+        else if ( array instanceof short[] ) {
+            short[] a = (short[])array;
+            for (int i=0; i<a.length; i++) {
+                n += writeElementSeparator(i, out) + out.write(a[i]);
+            }
+        }
+        else if ( array instanceof byte[] ) {
+            byte[] a = (byte[])array;
+            for (int i=0; i<a.length; i++) {
+                n += writeElementSeparator(i, out) + out.write(a[i]);
+            }
+        }
+        else {
+            float[] a = (float[])array;
+            for (int i=0; i<a.length; i++) {
+                n += writeElementSeparator(i, out);
+                float f = a[i];
+                // only integral floats print the same as the double
+                if ( f==(long)f && f>-1e7f && f<1e7f ) n += out.write((double)f);
+                else n += out.write(String.valueOf(f));
+            }
+        }
+        return n;
+    }
+
+    /** The separator (if not first) and wrap point before element i */
+    protected int writeElementSeparator(int i, AutoIndentWriter out)
+        throws IOException
+    {
+        int n = 0;
+        if ( i>0 && separatorString!=null ) {
+            n += out.writeSeparator(separatorString);
+        }
+        if ( wrapString!=null ) n += out.writeWrapSeparator(wrapString);
+        return n;
+    }
+
     protected int writeTemplate(StringTemplate self, Object o, StringTemplateWriter out) throws IOException {
         int n = 0;
         StringTemplate stToWrite = (StringTemplate)o;
@@ -735,6 +935,14 @@ public class ASTExpr extends Expr {
             if ( formatString != null ) {
                 AttributeRenderer renderer =
                     self.getAttributeRenderer(String.class);
+                if ( renderer instanceof FilteringAttributeRenderer ) {
+                    // stream the template through the format filter
+                    StringTemplateWriter filter =
+                        ((FilteringAttributeRenderer)renderer).getFilter(formatString, out);
+                    if ( filter!=null ) {
+                        return n + stToWrite.write(filter);
+                    }
+                }
                 if ( renderer != null ) {
                     // you pay a penalty for applying format option to a template
                     // because the template must be written to a temp StringWriter so it can
@@ -743,6 +951,10 @@ public class ASTExpr extends Expr {
                     StringTemplateWriter sw =
                         self.getGroup().getStringTemplateWriter(buf);
                     stToWrite.write(sw);
+                    if ( renderer instanceof StreamingAttributeRenderer ) {
+                        StreamingAttributeRenderer sr = (StreamingAttributeRenderer)renderer;
+                        return n + sr.write(buf.toString(), formatString, out);
+                    }
                     n = out.write(renderer.toString(buf.toString(), formatString));
                     return n;
                 }
@@ -982,6 +1194,67 @@ public class ASTExpr extends Expr {
 		return iter;
 	}
 
+	/** A read-only window onto a random-access list; rest(), trunc() and
+	 *  strip() return these instead of copying the attribute.  Indexes
+	 *  through get() so it also works on ArrayWrappedInList.  Views of
+	 *  views collapse onto the original list so recursive rest() stays
+	 *  one level deep, and a view remembers when it is known null-free.
+	 */
+	protected static class ListView extends AbstractList implements RandomAccess {
+		protected List list;
+		protected int offset;
+		protected int size;
+		protected boolean noNulls;
+
+		public ListView(List list, int offset, int size, boolean noNulls) {
+			if ( list instanceof ListView ) {
+				ListView v = (ListView)list;
+				list = v.list;
+				offset += v.offset;
+				noNulls |= v.noNulls;
+			}
+			this.list = list;
+			this.offset = offset;
+			this.size = size;
+			this.noNulls = noNulls;
+		}
+
+		public Object get(int i) {
+			if ( i<0 || i>=size ) {
+				throw new IndexOutOfBoundsException("Index: "+i+", Size: "+size);
+			}
+			return list.get(offset+i);
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+
+	/** Return attribute as a random-access list if it is one (or an array);
+	 *  null means walk it with an iterator.
+	 */
+	protected static List asRandomAccessList(Object attribute) {
+		attribute = convertArrayToList(attribute);
+		if ( attribute instanceof List && attribute instanceof RandomAccess ) {
+			return (List)attribute;
+		}
+		return null;
+	}
+
+	/** Does list have a null in [from,to)?  A null-free view answers
+	 *  without scanning.
+	 */
+	protected static boolean containsNull(List list, int from, int to) {
+		if ( list instanceof ListView && ((ListView)list).noNulls ) {
+			return false;
+		}
+		for (int i=from; i<to; i++) {
+			if ( list.get(i)==null ) return true;
+		}
+		return false;
+	}
+
 	/** Return the first attribute if multiple valued or the attribute
 	 *  itself if single-valued.  Used in <names:first()>
 	 */
@@ -990,6 +1263,10 @@ public class ASTExpr extends Expr {
 			return null;
 		}
 		Object f = attribute;
+		List list = asRandomAccessList(attribute);
+		if ( list!=null ) {
+			return list.size()>0 ? list.get(0) : f;
+		}
 		attribute = convertAnythingIteratableToIterator(attribute);
 		if ( attribute instanceof Iterator ) {
 			Iterator it = (Iterator)attribute;
@@ -1009,6 +1286,17 @@ public class ASTExpr extends Expr {
 			return null;
 		}
 		Object theRest = attribute;
+		List list = asRandomAccessList(attribute);
+		if ( list!=null ) {
+			int n = list.size();
+			if ( n==0 ) {
+				return null; // if not even one value return null
+			}
+			if ( !containsNull(list, 1, n) ) {
+				// view is null-free, so rest() of it won't scan again
+				return new ListView(list, 1, n-1, true);
+			}
+		}
 		attribute = convertAnythingIteratableToIterator(attribute);
 		if ( attribute instanceof Iterator ) {
 			List a = new ArrayList();
@@ -1031,15 +1319,20 @@ public class ASTExpr extends Expr {
 	}
 
 	/** Return the last attribute if multiple valued or the attribute
-	 *  itself if single-valued.  Used in <names:last()>.  This is pretty
-	 *  slow as it iterates until the last element.  Ultimately, I could
-	 *  make a special case for a List or Vector.
+	 *  itself if single-valued.  Used in <names:last()>.  Random-access
+	 *  lists and arrays are indexed directly; anything else is iterated
+	 *  until the last element.
 	 */
 	public Object last(Object attribute) {
 		if ( attribute==null ) {
 			return null;
 		}
 		Object last = attribute;
+		List list = asRandomAccessList(attribute);
+		if ( list!=null ) {
+			int n = list.size();
+			return n>0 ? list.get(n-1) : last;
+		}
 		attribute = convertAnythingIteratableToIterator(attribute);
 		if ( attribute instanceof Iterator ) {
 			Iterator it = (Iterator)attribute;
@@ -1051,11 +1344,17 @@ public class ASTExpr extends Expr {
 		return last;
 	}
 
-	/** Return a new list w/o null values. */
+	/** Return a list w/o null values; a view of the attribute when it
+	 *  is random-access and has no nulls to drop.
+	 */
 	public Object strip(Object attribute) {
 		if ( attribute==null ) {
 			return null;
 		}
+		List list = asRandomAccessList(attribute);
+		if ( list!=null && !containsNull(list, 0, list.size()) ) {
+			return new ListView(list, 0, list.size(), true);
+		}
 		attribute = convertAnythingIteratableToIterator(attribute);
 		if ( attribute instanceof Iterator ) {
 			List a = new ArrayList();
@@ -1074,6 +1373,10 @@ public class ASTExpr extends Expr {
 		if ( attribute==null ) {
 			return null;
 		}
+		List list = asRandomAccessList(attribute);
+		if ( list!=null ) {
+			return new ListView(list, 0, Math.max(list.size()-1, 0), false);
+		}
 		attribute = convertAnythingIteratableToIterator(attribute);
 		if ( attribute instanceof Iterator ) {
 			List a = new ArrayList();
@@ -1094,7 +1397,7 @@ public class ASTExpr extends Expr {
 	 */
 	public Object length(Object attribute) {
 		if ( attribute == null) {
-			return new Integer(0);
+			return Integer.valueOf(0);
 		}
 		int i = 1;		// we have at least one of something. Iterator and arrays might be empty.
 		if (attribute instanceof Map) {
@@ -1123,6 +1426,9 @@ public class ASTExpr extends Expr {
 			double[] list = (double[])attribute;
 			i = list.length;
 		}
+		else if ( attribute.getClass().isArray() ) {
+			i = Array.getLength(attribute);
+		}
 		else if ( attribute instanceof Iterator) {
 			Iterator it = (Iterator)attribute;
 			i = 0;
@@ -1131,7 +1437,7 @@ public class ASTExpr extends Expr {
 				i++;
 			}
 		}
-		return new Integer(i);
+		return Integer.valueOf(i);
 	}
 
 	public Object getOption(String name) {
@@ -18,6 +18,11 @@ public class ArrayWrappedInList extends ArrayList {
 		n = Array.getLength(array);
 	}
 
+	/** The wrapped primitive array */
+	public Object getArray() {
+		return array;
+	}
+
 	public Object get(int i) {
 		return Array.get(array, i);
 	}
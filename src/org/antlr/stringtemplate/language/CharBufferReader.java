@@ -0,0 +1,116 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate.language;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/** A Reader over a CharBuffer so a decoded file can be handed to the
+ *  lexers without going through InputStreamReader's chunked decoding.
+ *  Use decode() to read a whole file in one go.
+ */
+public class CharBufferReader extends Reader {
+	/** Files at least this big are memory mapped rather than read */
+	public static final int MAP_THRESHOLD = 1024*1024;
+
+	protected CharBuffer buf;
+
+	public CharBufferReader(CharBuffer buf) {
+		this.buf = buf;
+	}
+
+	/** Decode all of file f from the named charset.  Big files are memory
+	 *  mapped so the bytes are never copied onto the heap; small ones are
+	 *  read with a single channel read.  Malformed input is replaced, like
+	 *  InputStreamReader does.  Throws IllegalArgumentException if the
+	 *  charset isn't supported.
+	 */
+	public static CharBuffer decode(File f, String charsetName)
+		throws IOException
+	{
+		Charset charset = Charset.forName(charsetName);
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			ByteBuffer bytes;
+			if ( size>=MAP_THRESHOLD ) {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			else {
+				bytes = ByteBuffer.allocate((int)size);
+				while ( bytes.hasRemaining() && channel.read(bytes)>=0 ) {
+				}
+				bytes.flip();
+			}
+			return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE)
+				.decode(bytes);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public int read() {
+		return buf.hasRemaining() ? buf.get() : -1;
+	}
+
+	public int read(char[] cbuf, int off, int len) {
+		if ( !buf.hasRemaining() ) {
+			return -1;
+		}
+		int n = Math.min(len, buf.remaining());
+		buf.get(cbuf, off, n);
+		return n;
+	}
+
+	public long skip(long n) {
+		if ( n<0 ) {
+			throw new IllegalArgumentException("skip value is negative");
+		}
+		int k = (int)Math.min(n, buf.remaining());
+		buf.position(buf.position()+k);
+		return k;
+	}
+
+	public boolean ready() {
+		return true;
+	}
+
+	public void close() {
+	}
+}
@@ -34,6 +34,7 @@ import org.antlr.stringtemplate.StringTemplateWriter;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import java.util.ArrayList;
 
 /** A conditional reference to an embedded subtemplate. */
@@ -80,6 +81,22 @@ public class ConditionalExpr extends ASTExpr {
 		this.elseSubtemplate = elseSubtemplate;
 	}
 
+	/** References in the conditions and all the subtemplates */
+	public void getTemplateReferences(Set names) {
+		super.getTemplateReferences(names);
+		if ( subtemplate!=null ) {
+			names.addAll(subtemplate.getTemplateReferences());
+		}
+		for (int i=0; elseIfSubtemplates!=null && i<elseIfSubtemplates.size(); i++) {
+			ElseIfClauseData d = (ElseIfClauseData)elseIfSubtemplates.get(i);
+			d.expr.getTemplateReferences(names);
+			names.addAll(d.st.getTemplateReferences());
+		}
+		if ( elseSubtemplate!=null ) {
+			names.addAll(elseSubtemplate.getTemplateReferences());
+		}
+	}
+
 	/** To write out the value of a condition expr, invoke the evaluator in eval.g
 	 *  to walk the condition tree computing the boolean value.  If result
 	 *  is true, then write subtemplate.
@@ -73,6 +73,6 @@ abstract public class Expr {
     }
 
     public void setIndentation(String indentation) {
-        this.indentation = indentation;
+        this.indentation = LiteralPool.intern(indentation);
     }
 }
@@ -55,11 +55,11 @@ public class FormalArgument {
 	public StringTemplate defaultValueST;
 
 	public FormalArgument(String name) {
-		this.name = name;
+		this.name = LiteralPool.intern(name);
 	}
 
 	public FormalArgument(String name, StringTemplate defaultValueST) {
-		this.name = name;
+		this.name = LiteralPool.intern(name);
 		this.defaultValueST = defaultValueST;
 	}
 
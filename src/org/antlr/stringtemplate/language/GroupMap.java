@@ -0,0 +1,163 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate.language;
+
+import java.util.*;
+
+import org.antlr.stringtemplate.StringTemplate;
+
+/** A map defined in a group file, m ::= ["a":"x", default:key], compiled
+ *  for lookup.  Values that are plain text are kept as Literals rather
+ *  than templates so <m.(k)> needn't instantiate and walk a template;
+ *  the default/key semantics are resolved when the map is built.  It's
+ *  read-only.  Iterating it shows the same entries the group file
+ *  defined, including the default under DEFAULT_MAP_VALUE_NAME.
+ */
+public class GroupMap extends AbstractMap {
+	/** The text of a map value with no expressions.  ASTExpr writes it
+	 *  raw, as it would have written the template, so renderers for
+	 *  String only see it when there's a format option.
+	 */
+	public static final class Literal {
+		protected final String text;
+
+		public Literal(String text) {
+			this.text = text;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Literal && ((Literal)o).text.equals(text);
+		}
+
+		public int hashCode() {
+			return text.hashCode();
+		}
+
+		public String toString() {
+			return text;
+		}
+	}
+
+	/** Stands in for a key mapped to nothing, as in ["a":] */
+	protected static final Object NO_VALUE = new Object();
+
+	/** Key to Literal, StringTemplate, MAP_KEY_VALUE or NO_VALUE */
+	protected final Map lookup;
+
+	/** What the group file defined, with literal values as Literals */
+	protected final Map entries;
+
+	protected final boolean hasDefault;
+	protected final Object defaultValue;
+
+	/** mapping comes from the group file parser: String keys to
+	 *  StringTemplate, MAP_KEY_VALUE or null values.
+	 */
+	public GroupMap(Map mapping) {
+		Map entries = new LinkedHashMap();
+		Map lookup = new HashMap();
+		Iterator it = mapping.entrySet().iterator();
+		while ( it.hasNext() ) {
+			Map.Entry e = (Map.Entry)it.next();
+			Object value = compileValue(e.getValue());
+			entries.put(e.getKey(), value);
+			lookup.put(e.getKey(), value==null ? NO_VALUE : value);
+		}
+		this.entries = Collections.unmodifiableMap(entries);
+		this.hasDefault = lookup.containsKey(ASTExpr.DEFAULT_MAP_VALUE_NAME);
+		Object d = lookup.remove(ASTExpr.DEFAULT_MAP_VALUE_NAME);
+		this.defaultValue = d==NO_VALUE ? null : d;
+		this.lookup = lookup;
+	}
+
+	/** Turn a template with nothing but literal text into that text */
+	protected static Object compileValue(Object value) {
+		if ( !(value instanceof StringTemplate) || value==ASTExpr.MAP_KEY_VALUE ) {
+			return value;
+		}
+		StringTemplate st = (StringTemplate)value;
+		List chunks = st.getChunks();
+		if ( chunks==null ) {
+			return new Literal("");
+		}
+		StringBuffer buf = new StringBuffer();
+		for (int i = 0; i < chunks.size(); i++) {
+			Object chunk = chunks.get(i);
+			if ( !(chunk instanceof StringRef) ) {
+				return st; // has expressions; must stay a template
+			}
+			buf.append(chunk.toString());
+		}
+		return new Literal(LiteralPool.intern(buf.toString()));
+	}
+
+	/** Resolve <m.(property)> as rawGetObjectProperty() does for any Map:
+	 *  keys, values, the key, its toString(), then the default.
+	 */
+	public Object lookup(Object property) {
+		if ( property.equals("keys") ) {
+			return keySet();
+		}
+		if ( property.equals("values") ) {
+			return values();
+		}
+		Object value = lookup.get(property);
+		if ( value==null && !(property instanceof String) ) {
+			value = lookup.get(property.toString());
+		}
+		if ( value==null ) {
+			if ( !hasDefault ) {
+				return null;
+			}
+			value = defaultValue;
+		}
+		if ( value==NO_VALUE ) {
+			return null;
+		}
+		if ( value==ASTExpr.MAP_KEY_VALUE ) {
+			return property;
+		}
+		return value;
+	}
+
+	public Object get(Object key) {
+		return entries.get(key);
+	}
+
+	public boolean containsKey(Object key) {
+		return entries.containsKey(key);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public Set entrySet() {
+		return entries.entrySet();
+	}
+}
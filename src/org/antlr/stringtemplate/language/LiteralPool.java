@@ -0,0 +1,149 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate.language;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A JVM-wide pool of the strings templates keep after they're compiled:
+ *  literal text, newlines, indentation, template, argument and region
+ *  names.  Big group hierarchies repeat these thousands of times; the
+ *  parsers send them through intern() at load time so only one copy of
+ *  each stays on the heap.  Unlike String.intern(), entries go away once
+ *  no template refers to them.  Also keeps a rough count of the bytes
+ *  saved by pooling and by groups that discard their patterns; see
+ *  StringTemplateGroup.setDiscardTemplatePatterns().
+ *
+ *  The pool is split into stripes by hash, each with its own lock, so
+ *  templates compiled on different threads rarely wait on each other.
+ */
+public class LiteralPool {
+	protected static final int STRIPES = 32; // power of 2
+
+	/** Each stripe maps String to WeakReference to the pooled copy; the
+	 *  value can't hold the key strongly or nothing would ever leave the
+	 *  pool.  Lock on the stripe.
+	 */
+	protected static final WeakHashMap[] pool = new WeakHashMap[STRIPES];
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			pool[i] = new WeakHashMap();
+		}
+	}
+
+	protected static final AtomicLong lookups = new AtomicLong();
+	protected static final AtomicLong hits = new AtomicLong();
+	protected static final AtomicLong bytesSaved = new AtomicLong();
+
+	protected static WeakHashMap stripeFor(String s) {
+		int h = s.hashCode();
+		h ^= (h>>>16);
+		return pool[h & (STRIPES-1)];
+	}
+
+	/** Return the pooled copy of s, adding s if it's not there */
+	public static String intern(String s) {
+		if ( s==null ) {
+			return null;
+		}
+		lookups.incrementAndGet();
+		WeakHashMap stripe = stripeFor(s);
+		String pooled;
+		synchronized (stripe) {
+			WeakReference ref = (WeakReference)stripe.get(s);
+			pooled = ref!=null ? (String)ref.get() : null;
+			if ( pooled==null ) {
+				stripe.put(s, new WeakReference(s));
+				return s;
+			}
+		}
+		if ( pooled!=s ) {
+			hits.incrementAndGet();
+			bytesSaved.addAndGet(estimateSize(s));
+		}
+		return pooled;
+	}
+
+	/** Record that s was dropped, such as a pattern no longer needed */
+	public static void discarded(String s) {
+		if ( s!=null ) {
+			bytesSaved.addAndGet(estimateSize(s));
+		}
+	}
+
+	/** Rough heap size of a String: header, hash, array header, chars */
+	public static long estimateSize(String s) {
+		return 40 + 2L*s.length();
+	}
+
+	public static int size() {
+		int n = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (pool[i]) {
+				n += pool[i].size();
+			}
+		}
+		return n;
+	}
+
+	public static long getLookups() {
+		return lookups.get();
+	}
+
+	/** How many strings passed to intern() were duplicates */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/** Estimated bytes no longer retained thanks to the pool and to
+	 *  discarded patterns, since startup or resetStats().
+	 */
+	public static long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	public static void resetStats() {
+		lookups.set(0);
+		hits.set(0);
+		bytesSaved.set(0);
+	}
+
+	public static void clear() {
+		for (int i = 0; i < STRIPES; i++) {
+			synchronized (pool[i]) {
+				pool[i].clear();
+			}
+		}
+	}
+
+	public static String getStats() {
+		return "LiteralPool: "+size()+" strings, "+getLookups()+" lookups, "+
+			   getHits()+" duplicates, ~"+getBytesSaved()+" bytes saved";
+	}
+}
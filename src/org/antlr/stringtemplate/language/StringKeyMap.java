@@ -0,0 +1,246 @@
+/*
+ [The "BSD licence"]
+ Copyright (c) 2003-2005 Terence Parr
+ All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+ 1. Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+ 2. Redistributions in binary form must reproduce the above copyright
+    notice, this list of conditions and the following disclaimer in the
+    documentation and/or other materials provided with the distribution.
+ 3. The name of the author may not be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.antlr.stringtemplate.language;
+
+import java.util.*;
+
+/** A small Map from attribute names to values kept in two parallel
+ *  arrays.  Templates have few attributes/arguments so a linear scan,
+ *  comparing by identity first since names usually come from the same
+ *  interned AST text, beats hashing and allocates far less than a
+ *  default HashMap.  Past MAX_ARRAY_SIZE entries, or given a key that
+ *  isn't a String, it switches to a HashMap.
+ */
+public class StringKeyMap extends AbstractMap {
+	public static final int MAX_ARRAY_SIZE = 16;
+
+	protected String[] keys;
+	protected Object[] values;
+	protected int size = 0;
+
+	/** Non-null once we've outgrown the arrays */
+	protected HashMap map;
+
+	public StringKeyMap() {
+		this(4);
+	}
+
+	public StringKeyMap(int initialCapacity) {
+		if ( initialCapacity<1 ) {
+			initialCapacity = 1;
+		}
+		if ( initialCapacity>MAX_ARRAY_SIZE ) {
+			map = new HashMap();
+		}
+		else {
+			keys = new String[initialCapacity];
+			values = new Object[initialCapacity];
+		}
+	}
+
+	protected int indexOf(Object key) {
+		for (int i = 0; i < size; i++) {
+			if ( keys[i]==key ) {
+				return i;
+			}
+		}
+		if ( !(key instanceof String) ) {
+			return -1;
+		}
+		for (int i = 0; i < size; i++) {
+			if ( keys[i].equals(key) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public Object get(Object key) {
+		if ( map!=null ) {
+			return map.get(key);
+		}
+		int i = indexOf(key);
+		return i>=0 ? values[i] : null;
+	}
+
+	public boolean containsKey(Object key) {
+		if ( map!=null ) {
+			return map.containsKey(key);
+		}
+		return indexOf(key)>=0;
+	}
+
+	public Object put(Object key, Object value) {
+		if ( map!=null ) {
+			return map.put(key, value);
+		}
+		int i = indexOf(key);
+		if ( i>=0 ) {
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+		if ( !(key instanceof String) || size==MAX_ARRAY_SIZE ) {
+			switchToHashMap();
+			return map.put(key, value);
+		}
+		if ( size==keys.length ) {
+			int n = Math.min(keys.length*2, MAX_ARRAY_SIZE);
+			String[] newKeys = new String[n];
+			Object[] newValues = new Object[n];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			keys = newKeys;
+			values = newValues;
+		}
+		keys[size] = (String)key;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	public Object remove(Object key) {
+		if ( map!=null ) {
+			return map.remove(key);
+		}
+		int i = indexOf(key);
+		if ( i<0 ) {
+			return null;
+		}
+		Object old = values[i];
+		removeAt(i);
+		return old;
+	}
+
+	protected void removeAt(int i) {
+		int n = size-i-1;
+		System.arraycopy(keys, i+1, keys, i, n);
+		System.arraycopy(values, i+1, values, i, n);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	public void clear() {
+		if ( map!=null ) {
+			map.clear();
+			return;
+		}
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+
+	public int size() {
+		return map!=null ? map.size() : size;
+	}
+
+	protected void switchToHashMap() {
+		map = new HashMap(size*2+1);
+		for (int i = 0; i < size; i++) {
+			map.put(keys[i], values[i]);
+		}
+		keys = null;
+		values = null;
+		size = 0;
+	}
+
+	public Set entrySet() {
+		return new AbstractSet() {
+			public int size() {
+				return StringKeyMap.this.size();
+			}
+			public Iterator iterator() {
+				if ( map!=null ) {
+					return map.entrySet().iterator();
+				}
+				return new EntryIterator();
+			}
+		};
+	}
+
+	protected class EntryIterator implements Iterator {
+		int next = 0;
+		int last = -1;
+		public boolean hasNext() {
+			return next<size;
+		}
+		public Object next() {
+			if ( next>=size ) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new Entry(last);
+		}
+		public void remove() {
+			if ( last<0 ) {
+				throw new IllegalStateException();
+			}
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+
+	protected class Entry implements Map.Entry {
+		int i;
+		String key;
+		public Entry(int i) {
+			this.i = i;
+			this.key = keys[i];
+		}
+		public Object getKey() {
+			return key;
+		}
+		public Object getValue() {
+			if ( keys!=null && i<size && keys[i]==key ) {
+				return values[i];
+			}
+			return get(key); // moved or removed since
+		}
+		public Object setValue(Object value) {
+			return put(key, value);
+		}
+		public boolean equals(Object o) {
+			if ( !(o instanceof Map.Entry) ) {
+				return false;
+			}
+			Map.Entry e = (Map.Entry)o;
+			Object v = getValue();
+			return key.equals(e.getKey()) &&
+				   (v==null ? e.getValue()==null : v.equals(e.getValue()));
+		}
+		public int hashCode() {
+			Object v = getValue();
+			return key.hashCode() ^ (v==null ? 0 : v.hashCode());
+		}
+		public String toString() {
+			return key+"="+getValue();
+		}
+	}
+}
@@ -38,7 +38,7 @@ public class StringRef extends Expr {
 
 	public StringRef(StringTemplate enclosingTemplate, String str) {
 		super(enclosingTemplate);
-		this.str = str;
+		this.str = LiteralPool.intern(str);
 	}
 
 	/** Just print out the string; no reference to self because this
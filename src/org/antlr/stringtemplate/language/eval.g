@@ -291,7 +291,7 @@ argList[StringTemplate embedded, Map initialContext]
 {
     argumentContext = initialContext;
     if ( argumentContext==null ) {
-        argumentContext=new HashMap();
+        argumentContext=embedded.newAttributeMap();
     }
 }
     :   #( ARGS (argumentAssignment[embedded,argumentContext])* )
@@ -142,8 +142,8 @@ template[StringTemplateGroup g]
 	        (args[st]|{st.defineEmptyFormalArgumentList();})
 	    RPAREN
 	    DEFINED_TO_BE
-	    (	t:STRING     {st.setTemplate(t.getText());}
-	    |	bt:BIGSTRING {st.setTemplate(bt.getText());}
+	    (	t:STRING     {g.defineTemplatePattern(st, t.getText());}
+	    |	bt:BIGSTRING {g.defineTemplatePattern(st, bt.getText());}
 	    )
 
 	|   alias:ID DEFINED_TO_BE target:ID
@@ -198,7 +198,7 @@ Map m=null;
 	        g.error("redefinition of template as map: "+name.getText());
 	    }
 	    else {
-	    	g.defineMap(name.getText(), m);
+	    	g.defineMap(name.getText(), new GroupMap(m));
 	    }
 	    }
 	;
@@ -81,7 +81,7 @@ action[StringTemplate self]
         StringTemplate subtemplate =
         	new StringTemplate(self.getGroup(), null);
         subtemplate.setEnclosingInstance(self);
-        subtemplate.setName(i.getText()+"_subtemplate");
+        subtemplate.setName(LiteralPool.intern(i.getText()+"_subtemplate"));
         self.addChunk(c);
         }
 
@@ -94,7 +94,7 @@ action[StringTemplate self]
              StringTemplate elseIfSubtemplate =
                  new StringTemplate(self.getGroup(), null);
              elseIfSubtemplate.setEnclosingInstance(self);
-             elseIfSubtemplate.setName(ei.getText()+"_subtemplate");
+             elseIfSubtemplate.setName(LiteralPool.intern(ei.getText()+"_subtemplate"));
             }
 
             template[elseIfSubtemplate]
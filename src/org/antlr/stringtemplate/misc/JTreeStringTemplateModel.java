@@ -273,9 +273,9 @@ public class JTreeStringTemplateModel implements TreeModel {
 	}
 
 	static class HashMapWrapper extends Wrapper {
-		HashMap table;
+		Map table;
 		public HashMapWrapper(Object o) {
-			this.table = (HashMap)o;
+			this.table = (Map)o;
 		}
 		public Object getWrappedObject() {
 			return table;
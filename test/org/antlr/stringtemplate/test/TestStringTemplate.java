@@ -28,8 +28,13 @@
 package org.antlr.stringtemplate.test;
 
 import org.antlr.stringtemplate.*;
+import org.antlr.stringtemplate.language.ASTExpr;
 import org.antlr.stringtemplate.language.AngleBracketTemplateLexer;
 import org.antlr.stringtemplate.language.DefaultTemplateLexer;
+import org.antlr.stringtemplate.language.FormalArgument;
+import org.antlr.stringtemplate.language.LiteralPool;
+import org.antlr.stringtemplate.language.StringKeyMap;
+import org.antlr.stringtemplate.language.StringRef;
 import org.junit.Test;
 import org.junit.FixMethodOrder;
 import org.junit.runners.MethodSorters;
@@ -163,6 +168,928 @@ public class TestStringTemplate {
 		assertEquals(expecting,group.toString());
 	}
 
+	@Test public void testRefreshReloadsOnlyChangedFiles() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir")+"/refresh";
+		new File(tmpdir).mkdir();
+		new File(tmpdir, "c.st").delete();
+		writeFile(tmpdir, "a.st", "a: <b()>");
+		writeFile(tmpdir, "b.st", "b");
+		StringTemplateGroup group = new StringTemplateGroup("refresh", tmpdir,
+				AngleBracketTemplateLexer.class);
+		group.setRefreshInterval(0);
+		assertEquals("a: b", group.getInstanceOf("a").toString());
+		StringTemplate b = group.getTemplateDefinition("b");
+		try {
+			group.getInstanceOf("c");
+			fail("c.st doesn't exist yet");
+		}
+		catch (IllegalArgumentException iae) {
+		}
+
+		writeFile(tmpdir, "a.st", "a2: <b()>");
+		File a = new File(tmpdir, "a.st");
+		a.setLastModified(a.lastModified()-10000);
+		writeFile(tmpdir, "c.st", "c");
+		assertEquals("a2: b", group.getInstanceOf("a").toString());
+		assertSame(b, group.getTemplateDefinition("b")); // not recompiled
+		assertEquals("c", group.getInstanceOf("c").toString());
+	}
+
+	@Test public void testTemplateCacheEvictsLeastRecentlyUsed() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir")+"/evict";
+		new File(tmpdir).mkdir();
+		writeFile(tmpdir, "a.st", "a: <b()>");
+		writeFile(tmpdir, "b.st", "b");
+		writeFile(tmpdir, "c.st", "c");
+		StringTemplateGroup group = new StringTemplateGroup("evict", tmpdir,
+				AngleBracketTemplateLexer.class);
+		group.defineTemplate("d", "d");
+		assertEquals("a: b", group.getInstanceOf("a").toString());
+		group.setMaxTemplateCacheSize(group.getTemplateCacheSize());
+		group.getInstanceOf("a"); // b is LRU now
+		assertEquals("c", group.getInstanceOf("c").toString());
+		assertEquals(1, group.getTemplateCacheEvictions());
+		assertNull(group.getTemplateDefinition("b"));
+		assertNotNull(group.getTemplateDefinition("a"));
+		assertNotNull(group.getTemplateDefinition("d")); // never evicted
+		int misses = group.getTemplateCacheMisses();
+		assertEquals("b", group.getInstanceOf("b").toString());
+		assertEquals(misses+1, group.getTemplateCacheMisses());
+		assertTrue(group.getTemplateCacheSize()<=group.getMaxTemplateCacheSize());
+	}
+
+	@Test public void testReloadGroupFileRecompilesOnlyChanges() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"m ::= [\"a\":\"1\"]" +newline+
+			"t(x=\"y\") ::= \"t:<u()>:<m.a>\"" +newline+
+			"u() ::= \"u\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates));
+		assertEquals("t:u:1", group.getInstanceOf("t").toString());
+		StringTemplate t = group.getTemplateDefinition("t");
+		StringTemplate u = group.getTemplateDefinition("u");
+		Map m = group.getMap("m");
+
+		templates =
+			"group test;" +newline+
+			"m ::= [\"a\":\"1\"]" +newline+
+			"t(x=\"y\") ::= \"t:<u()>:<m.a>\"" +newline+
+			"u() ::= \"u2\"" +newline+
+			"v() ::= \"v\"" +newline;
+		group.reload(new StringReader(templates));
+		assertEquals("t:u2:1", group.getInstanceOf("t").toString());
+		assertSame(t, group.getTemplateDefinition("t"));
+		assertNotSame(u, group.getTemplateDefinition("u"));
+		assertSame(m, group.getMap("m"));
+		assertEquals("v", group.getInstanceOf("v").toString());
+
+		templates =
+			"group test;" +newline+
+			"m ::= [\"a\":\"2\"]" +newline+
+			"t(x=\"z\") ::= \"t:<u()>:<m.a>\"" +newline+
+			"u() ::= \"u2\"" +newline;
+		group.reload(new StringReader(templates));
+		assertEquals("t:u2:2", group.getInstanceOf("t").toString());
+		assertNotSame(t, group.getTemplateDefinition("t"));
+		assertFalse(group.isDefined("v"));
+
+		// a syntax error leaves the group as it was
+		t = group.getTemplateDefinition("t");
+		m = group.getMap("m");
+		ErrorBuffer errors = new ErrorBuffer();
+		group.setErrorListener(errors);
+		templates =
+			"group test;" +newline+
+			"m ::= [\"a\":\"3\"]" +newline+
+			"u() ::= \"u3\"" +newline+
+			"w( ::= \"w\"" +newline;
+		group.reload(new StringReader(templates));
+		assertTrue(errors.toString().indexOf("not reloaded")>=0);
+		assertSame(t, group.getTemplateDefinition("t"));
+		assertSame(m, group.getMap("m"));
+		assertEquals("t:u2:2", group.getInstanceOf("t").toString());
+	}
+
+	@Test public void testFlattenedRenderersAndMapsSeeSuperGroupChanges() throws Exception {
+		StringTemplateGroup base = new StringTemplateGroup(new StringReader(
+			"group base;" +newline+
+			"m ::= [\"a\":\"1\"]" +newline));
+		StringTemplateGroup sub = new StringTemplateGroup(new StringReader(
+			"group sub;" +newline+
+			"t(x) ::= \"<x; format=\\\"upper\\\">:<m.a>\"" +newline+
+			"u() ::= \"<n.b>\"" +newline));
+		sub.setSuperGroup(base);
+		StringTemplate t = sub.getInstanceOf("t");
+		t.setAttribute("x", "hi");
+		assertEquals("hi:1", t.toString()); // no renderer to apply format
+		assertNull(sub.getAttributeRenderer(String.class));
+
+		// changes to the super group show up in the sub group's tables
+		base.registerRenderer(String.class, new StringRenderer());
+		Map n = new HashMap();
+		n.put("b", "2");
+		base.defineMap("n", n);
+		assertNotNull(sub.getAttributeRenderer(String.class));
+		assertSame(n, sub.getMap("n"));
+		t = sub.getInstanceOf("t");
+		t.setAttribute("x", "hi");
+		assertEquals("HI:1", t.toString());
+		assertEquals("2", sub.getInstanceOf("u").toString());
+
+		sub.setSuperGroup((StringTemplateGroup)null);
+		assertNull(sub.getAttributeRenderer(String.class));
+		assertNull(sub.getMap("m"));
+	}
+
+	static class TablesGroup extends StringTemplateGroup {
+		public TablesGroup(String name) { super(name); }
+		public int lookups;
+		public Object tables() { return getLookupTables(); }
+		protected LookupTables getLookupTables() {
+			lookups++;
+			return super.getLookupTables();
+		}
+	}
+
+	@Test public void testLookupTablesRebuiltOnlyForAffectedGroups() throws Exception {
+		TablesGroup a = new TablesGroup("a");
+		TablesGroup b = new TablesGroup("b");
+		TablesGroup sub = new TablesGroup("sub");
+		sub.setSuperGroup(a);
+		Object bTables = b.tables();
+		Object subTables = sub.tables();
+		a.defineMap("m", new HashMap());
+		assertSame(bTables, b.tables()); // unrelated group keeps its tables
+		assertNotSame(subTables, sub.tables());
+		assertNotNull(sub.getMap("m"));
+		// nothing changed since: no walk up to the supergroup
+		a.lookups = 0;
+		sub.getMap("m");
+		sub.getAttributeRenderer(String.class);
+		assertEquals(0, a.lookups);
+
+		// setAttributeRenderers() copies; later changes go through registerRenderer()
+		Map renderers = new HashMap();
+		b.setAttributeRenderers(renderers);
+		renderers.put(String.class, new StringRenderer());
+		assertNull(b.getAttributeRenderer(String.class));
+		b.registerRenderer(String.class, new StringRenderer());
+		assertNotNull(b.getAttributeRenderer(String.class));
+	}
+
+	@Test public void testRendererForSuperclassAndInterface() throws Exception {
+		StringTemplateGroup group = new StringTemplateGroup("test");
+		group.registerRenderer(Number.class, new AttributeRenderer() {
+			public String toString(Object o) { return "#"+o; }
+			public String toString(Object o, String f) { return "#"+o; }
+		});
+		group.registerRenderer(CharSequence.class, new AttributeRenderer() {
+			public String toString(Object o) { return "'"+o+"'"; }
+			public String toString(Object o, String f) { return "'"+o+"'"; }
+		});
+		StringTemplate st = new StringTemplate(group, "$a$ $b$ $c$ $d$");
+		st.setAttribute("a", Integer.valueOf(1));
+		st.setAttribute("b", Double.valueOf(2.5));
+		st.setAttribute("c", new StringBuffer("x"));
+		st.setAttribute("d", Boolean.TRUE);
+		assertEquals("#1 #2.5 'x' true", st.toString());
+
+		// more specific registration wins; cached lookups see it
+		group.registerRenderer(Integer.class, new AttributeRenderer() {
+			public String toString(Object o) { return "int "+o; }
+			public String toString(Object o, String f) { return "int "+o; }
+		});
+		assertEquals("int 1 #2.5 'x' true", st.toString());
+	}
+
+	static class CacheTemplate extends StringTemplate {
+		public Map cache() { return resolvedRenderers; }
+	}
+
+	static class CacheGroup extends StringTemplateGroup {
+		public CacheGroup(String name) { super(name); }
+		public StringTemplate createStringTemplate() { return new CacheTemplate(); }
+	}
+
+	@Test public void testTemplateRenderersResolvedOncePerClass() throws Exception {
+		StringTemplateGroup group = new CacheGroup("test");
+		StringTemplate t = group.defineTemplate("t", "$a$ $b$");
+		t.registerRenderer(Number.class, new AttributeRenderer() {
+			public String toString(Object o) { return "#"+o; }
+			public String toString(Object o, String f) { return "#"+o; }
+		});
+		CacheTemplate st = (CacheTemplate)group.getInstanceOf("t");
+		st.setAttribute("a", Integer.valueOf(1));
+		st.setAttribute("b", Long.valueOf(2));
+		assertEquals("#1 #2", st.toString());
+		Map cache = st.cache();
+		assertTrue(cache instanceof java.util.concurrent.ConcurrentMap);
+		assertEquals(2, cache.size()); // Integer and Long, each resolved once
+		assertEquals("#1 #2", st.toString());
+		assertSame(cache, st.cache());
+		assertEquals(2, cache.size());
+		// registering on the definition clears the cache its instances share
+		t.registerRenderer(Integer.class, new AttributeRenderer() {
+			public String toString(Object o) { return "int "+o; }
+			public String toString(Object o, String f) { return "int "+o; }
+		});
+		assertEquals(0, cache.size());
+		assertEquals("int 1 #2", st.toString());
+		assertEquals(2, cache.size());
+
+		// setAttributeRenderers() copies the map
+		Map renderers = new HashMap();
+		st.setAttributeRenderers(renderers);
+		renderers.put(Integer.class, new StringRenderer());
+		assertEquals("1 2", st.toString());
+	}
+
+	@Test public void testRenderContextOverridesRenderers() throws Exception {
+		StringTemplateGroup group = new StringTemplateGroup("test");
+		group.registerRenderer(String.class, new StringRenderer());
+		final StringTemplate t = group.defineTemplate("t", "$x; format=\"upper\"$ $y$");
+		final AttributeRenderer quoted = new AttributeRenderer() {
+			public String toString(Object o) { return "'"+o+"'"; }
+			public String toString(Object o, String f) { return "'"+o+"'"; }
+		};
+		RenderContext context = new RenderContext(Locale.FRENCH);
+		context.registerRenderer(CharSequence.class, quoted);
+		StringTemplate st = t.getInstanceOf();
+		st.setAttribute("x", "a");
+		st.setAttribute("y", "b");
+		assertEquals("'a' 'b'", st.toString(context));
+		assertEquals("A b", st.toString()); // group untouched
+		assertNull(RenderContext.getCurrent());
+
+		// the reader's rendering thread sees the context too
+		Reader r = st.openReader(StringTemplateWriter.NO_WRAP, context);
+		StringWriter sw = new StringWriter();
+		char[] buf = new char[16];
+		int n;
+		while ( (n=r.read(buf))>=0 ) {
+			sw.write(buf, 0, n);
+		}
+		r.close();
+		assertEquals("'a' 'b'", sw.toString());
+
+		// renderers can ask for the locale
+		context = new RenderContext(Locale.GERMAN);
+		context.registerRenderer(String.class, new AttributeRenderer() {
+			public String toString(Object o) {
+				return o+"/"+RenderContext.getCurrent().getLocale();
+			}
+			public String toString(Object o, String f) { return toString(o); }
+		});
+		assertEquals("a/de b/de", st.toString(context));
+	}
+
+	@Test public void testBuiltInRenderersWithCachedFormats() throws Exception {
+		StringTemplateGroup group = new StringTemplateGroup("test");
+		group.registerRenderer(Number.class,
+			new org.antlr.stringtemplate.NumberRenderer(Locale.US));
+		group.registerRenderer(Date.class,
+			new org.antlr.stringtemplate.DateRenderer(Locale.US));
+		group.registerRenderer(Calendar.class,
+			new org.antlr.stringtemplate.DateRenderer(Locale.US));
+		group.registerRenderer(CharSequence.class,
+			new org.antlr.stringtemplate.StringRenderer());
+		StringTemplate st = new StringTemplate(group,
+			"$n; format=\"#,##0.00\"$ $p; format=\"percent\"$ $i; format=\"bogus\"$ "+
+			"$d; format=\"yyyy-MM-dd\"$ $s; format=\"cap\"$ $x; format=\"xml-encode\"$");
+		st.setAttribute("n", Double.valueOf(1234.5));
+		st.setAttribute("p", Double.valueOf(0.25));
+		st.setAttribute("i", Integer.valueOf(7));
+		Calendar c = new GregorianCalendar(2005, 6, 5);
+		st.setAttribute("d", c);
+		st.setAttribute("s", "hello");
+		st.setAttribute("x", "a<b & \"c\"");
+		String expected = "1,234.50 25% 7 2005-07-05 Hello a&lt;b &amp; &quot;c&quot;";
+		assertEquals(expected, st.toString());
+		int cached = FormatCache.size();
+		assertEquals(expected, st.toString());
+		assertEquals(cached, FormatCache.size()); // nothing parsed again
+
+		// a RenderContext's locale wins over the renderer's
+		assertTrue(st.toString(new RenderContext(Locale.GERMAN)).startsWith("1.234,50 "));
+	}
+
+	@Test public void testBuiltInStringRendererStreamsNestedTemplates() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"t(x) ::= \"[<body(x); format=\\\"xml-encode\\\">] <body(x); format=\\\"upper\\\">\"" +newline+
+			"body(x) ::= \"<x> & <x>\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates),
+									AngleBracketTemplateLexer.class);
+		group.registerRenderer(String.class,
+			new org.antlr.stringtemplate.StringRenderer(Locale.US));
+		StringTemplate st = group.getInstanceOf("t");
+		st.setAttribute("x", "a<b");
+		final List chunks = new ArrayList();
+		StringWriter sw = new StringWriter();
+		st.write(new AutoIndentWriter(sw) {
+			public int write(String str) throws IOException {
+				chunks.add(str);
+				return super.write(str);
+			}
+		});
+		assertEquals("[a&lt;b &amp; a&lt;b] A<B & A<B", sw.toString());
+		// nested template arrives piecewise, not as one pre-rendered string
+		assertTrue(chunks.contains("a&lt;b"));
+		assertTrue(chunks.contains(" &amp; "));
+		assertNull(new org.antlr.stringtemplate.StringRenderer().getFilter("cap", null));
+	}
+
+	@Test public void testGroupMapLiteralValuesAreNotTemplates() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"typeInit ::= [\"int\":\"0\", \"float\":\"<x>.0\", \"void\":, default:key]" +newline+
+			"var(type,x) ::= \"<type> = <typeInit.(type)>;\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates));
+		Map m = group.getMap("typeInit");
+		assertFalse(m.get("int") instanceof StringTemplate);
+		assertEquals("0", m.get("int").toString());
+		assertTrue(m.get("float") instanceof StringTemplate);
+		assertEquals(4, m.size()); // default included as before
+		StringTemplate st = group.getInstanceOf("var");
+		st.setAttribute("type", "int");
+		assertEquals("int = 0;", st.toString());
+		st = group.getInstanceOf("var");
+		st.setAttribute("type", "float");
+		st.setAttribute("x", "1");
+		assertEquals("float = 1.0;", st.toString());
+		st = group.getInstanceOf("var");
+		st.setAttribute("type", "void");
+		assertEquals("void = ;", st.toString());
+		st = group.getInstanceOf("var");
+		st.setAttribute("type", "T");
+		assertEquals("T = T;", st.toString());
+	}
+
+	@Test public void testGroupMapLiteralsBypassStringRenderer() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"ops ::= [\"and\":\"&&\", \"or\":\"||\", default:\"?\"]" +newline+
+			"t(op,x) ::= \"<x> <ops.(op)> <ops.(op); format=\\\"upper\\\">\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates),
+									AngleBracketTemplateLexer.class);
+		group.registerRenderer(String.class, new AttributeRenderer() {
+			public String toString(Object o) {
+				return "{"+o+"}";
+			}
+			public String toString(Object o, String formatName) {
+				return "["+o+"]";
+			}
+		});
+		StringTemplate st = group.getInstanceOf("t");
+		st.setAttribute("op", "and");
+		st.setAttribute("x", "a");
+		// literal map values are written raw like the templates they were
+		assertEquals("{a} && [&&]", st.toString());
+	}
+
+	@Test public void testMemoryMappedMap() throws Exception {
+		File f = new File(System.getProperty("java.io.tmpdir"), "types.stmap");
+		MemoryMappedMap.Builder builder = new MemoryMappedMap.Builder(f);
+		for (int i = 0; i < 1000; i++) {
+			builder.put("t"+i, "T"+i);
+		}
+		builder.put("Aa", "collides with BB");
+		builder.put("BB", "bb");
+		builder.put("caf\u00e9", "unicode");
+		builder.close();
+
+		MemoryMappedMap table = new MemoryMappedMap(f);
+		assertEquals(1003, table.size());
+		assertEquals("T999", table.get("t999"));
+		assertEquals("collides with BB", table.get("Aa"));
+		assertEquals("bb", table.get("BB"));
+		assertEquals("unicode", table.get("caf\u00e9"));
+		assertNull(table.get("t1000"));
+		assertFalse(table.containsKey("nope"));
+		Map copy = new HashMap(table);
+		assertEquals("T0", copy.get("t0"));
+
+		StringTemplateGroup group = new StringTemplateGroup("test");
+		group.defineMap("types", table);
+		StringTemplate st = new StringTemplate(group, "$types.(x)$;$types.t1$;$types.(y)$");
+		st.setAttribute("x", "t42");
+		st.setAttribute("y", "missing");
+		assertEquals("T42;T1;", st.toString());
+	}
+
+	@Test public void testMemoryMappedMapDuplicateKeysLastWins() throws Exception {
+		File f = new File(System.getProperty("java.io.tmpdir"), "dups.stmap");
+		MemoryMappedMap.Builder builder = new MemoryMappedMap.Builder(f);
+		builder.put("a", "1");
+		builder.put("Aa", "x");
+		builder.put("BB", "y"); // same hash as Aa, different key
+		builder.put("a", "2");
+		builder.put("Aa", "z");
+		builder.close();
+		MemoryMappedMap table = new MemoryMappedMap(f);
+		assertEquals(3, table.size());
+		assertEquals(3, new HashSet(table.entrySet()).size());
+		assertEquals(3, new ArrayList(table.entrySet()).size());
+		assertEquals("2", table.get("a"));
+		assertEquals("z", table.get("Aa"));
+		assertEquals("y", table.get("BB"));
+
+		File aborted = new File(System.getProperty("java.io.tmpdir"), "aborted.stmap");
+		aborted.delete();
+		builder = new MemoryMappedMap.Builder(aborted);
+		builder.put("a", "1");
+		builder.abort();
+		assertFalse(aborted.exists());
+	}
+
+	@Test public void testListFunctionsOnRandomAccessLists() throws Exception {
+		StringTemplateGroup group = new StringTemplateGroup("test");
+		StringTemplate st = new StringTemplate(group,
+			"$first(names)$;$rest(names)$;$last(names)$;$trunc(names)$;"+
+			"$length(names)$;$length(rest(names))$;$rest(nums)$;$last(nums)$;"+
+			"$length(trunc(nums))$;$rest(holes)$;$strip(holes)$");
+		st.setAttribute("names", Arrays.asList(new String[] {"a","b","c"}));
+		st.setAttribute("nums", new int[] {1,2,3});
+		st.setAttribute("holes", Arrays.asList(new String[] {"x",null,"y"}));
+		assertEquals("a;bc;c;ab;3;2;23;3;2;y;xy", st.toString());
+
+		// rest() of a random-access list is a view, not a copy
+		List names = new ArrayList(Arrays.asList(new String[] {"a","b","c"}));
+		ASTExpr e = new ASTExpr(st, null, null);
+		List rest = (List)e.rest(names);
+		names.set(2, "z");
+		assertEquals("[b, z]", rest.toString());
+		assertEquals("z", e.last(names));
+		assertEquals(0, ((List)e.trunc(new ArrayList())).size());
+		assertNull(e.rest(new ArrayList()));
+	}
+
+	@Test public void testDeepRecursiveRestDoesNotNestViews() throws Exception {
+		// each rest() of a view must stay one level over the original list
+		List xs = new ArrayList();
+		for (int i=0; i<100000; i++) xs.add(Integer.valueOf(i));
+		ASTExpr e = new ASTExpr(null, null, null);
+		Object rest = xs;
+		for (int i=0; i<99999; i++) rest = e.rest(rest);
+		assertEquals(Integer.valueOf(99999), e.first(rest));
+
+		String templates =
+			"group rec;" +newline+
+			"rec(xs) ::= \"<if(xs)><first(xs)> <rec(xs=rest(xs))><endif>\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates));
+		List names = new ArrayList();
+		for (int i=0; i<1600; i++) names.add("x");
+		final StringTemplate st = group.getInstanceOf("rec");
+		st.setAttribute("xs", names);
+		final String[] result = new String[1];
+		// template recursion this deep needs more than the default stack
+		Thread t = new Thread(null, new Runnable() {
+			public void run() { result[0] = st.toString(); }
+		}, "rec", 64*1024*1024);
+		long start = System.currentTimeMillis();
+		t.start();
+		t.join();
+		assertTrue(System.currentTimeMillis()-start < 3000);
+		assertEquals(3200, result[0].length());
+	}
+
+	@Test public void testLiteralPoolAndDiscardedPatterns() throws Exception {
+		String templates =
+			"group pool;" +newline+
+			"a(x) ::= \"<x>, hello world;<\\n>\"" +newline+
+			"b(x) ::= \"<x>, hello world;<\\n>\"" +newline;
+		long saved = LiteralPool.getBytesSaved();
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates));
+		assertTrue(LiteralPool.getBytesSaved()>saved);
+		StringRef a = (StringRef)group.getTemplateDefinition("a").getChunks().get(1);
+		StringRef b = (StringRef)group.getTemplateDefinition("b").getChunks().get(1);
+		assertSame(a.toString(), b.toString());
+		FormalArgument ax = group.getTemplateDefinition("a").getFormalArgument("x");
+		FormalArgument bx = group.getTemplateDefinition("b").getFormalArgument("x");
+		assertSame(ax.name, bx.name);
+		assertNotNull(group.getTemplateDefinition("a").getTemplate());
+
+		saved = LiteralPool.getBytesSaved();
+		group = new StringTemplateGroup("discard");
+		group.setDiscardTemplatePatterns(true);
+		group.defineTemplate("t", "a pattern we won't need again: $x$");
+		assertNull(group.getTemplateDefinition("t").getTemplate());
+		assertTrue(LiteralPool.getBytesSaved()>=saved+60);
+		StringTemplate t = group.getInstanceOf("t");
+		t.setAttribute("x", "hi");
+		assertEquals("a pattern we won't need again: hi", t.toString());
+	}
+
+	@Test public void testLiteralPoolInternsAcrossThreads() throws Exception {
+		final String[][] pooled = new String[4][200];
+		Thread[] threads = new Thread[pooled.length];
+		for (int t = 0; t < threads.length; t++) {
+			final String[] mine = pooled[t];
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < mine.length; i++) {
+						mine[i] = LiteralPool.intern(new String("shared literal "+i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+		}
+		for (int t = 1; t < threads.length; t++) {
+			for (int i = 0; i < pooled[t].length; i++) {
+				assertSame(pooled[0][i], pooled[t][i]);
+			}
+		}
+	}
+
+	@Test public void testStringKeyMap() throws Exception {
+		Map m = new StringKeyMap(2);
+		Map expected = new HashMap();
+		for (int i = 0; i < 20; i++) {
+			m.put("a"+i, Integer.valueOf(i));
+			expected.put("a"+i, Integer.valueOf(i));
+			if ( i==10 ) {
+				assertEquals(expected, m);
+			}
+		}
+		assertEquals(expected, m);
+		assertEquals(Integer.valueOf(3), m.get(new String("a3")));
+
+		m = new StringKeyMap();
+		m.put("x", "1");
+		m.put("y", "2");
+		m.put("z", "3");
+		assertEquals("1", m.put(new String("x"), "4"));
+		assertEquals(3, m.size());
+		Iterator it = m.entrySet().iterator();
+		it.next();
+		it.next();
+		it.remove(); // y
+		assertEquals("{x=4, z=3}", m.toString());
+		assertNull(m.remove("y"));
+		assertEquals("3", m.remove("z"));
+		assertFalse(m.containsKey("z"));
+		assertEquals(1, m.size());
+	}
+
+	@Test public void testInstancesShareCompiledTemplate() throws Exception {
+		StringTemplateGroup group = new StringTemplateGroup("test");
+		StringTemplate t = group.defineTemplate("t", "$x$!");
+		t.defineFormalArgument("x");
+		StringTemplate a = group.getInstanceOf("t");
+		StringTemplate b = group.getInstanceOf("t");
+		assertSame(t.getCompiledTemplate(), a.getCompiledTemplate());
+		assertSame(a.getCompiledTemplate(), b.getCompiledTemplate());
+		assertTrue(t.getCompiledTemplate().isFrozen());
+		// changing an instance copies, leaving the others alone
+		a.defineFormalArgument("y");
+		assertNotSame(t.getCompiledTemplate(), a.getCompiledTemplate());
+		assertNull(t.getFormalArgument("y"));
+		assertNull(b.getFormalArgument("y"));
+		a.setAttribute("y", "2");
+		b.setAttribute("x", "1");
+		assertEquals("1!", b.toString());
+		try {
+			b.setAttribute("y", "2");
+			fail("y isn't an argument of t");
+		}
+		catch (NoSuchElementException nse) {
+		}
+	}
+
+	@Test public void testCompileOnlyReachableTemplates() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"t(x,y={<w()>}) ::= \"<if(x)><x:{a|<u()>}><endif><y>\"" +newline+
+			"u() ::= \"u\"" +newline+
+			"v() ::= \"v\"" +newline+
+			"w() ::= \"w\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates),
+									AngleBracketTemplateLexer.class, null, null,
+									Arrays.asList(new String[] {"t"}));
+		Map graph = group.getTemplateCallGraph();
+		assertEquals(new HashSet(Arrays.asList(new String[] {"u","w"})),
+					 graph.get("t"));
+		assertTrue(graph.containsKey("u"));
+		assertTrue(graph.containsKey("w"));
+		assertFalse(graph.containsKey("v"));
+		StringTemplate t = group.getInstanceOf("t");
+		t.setAttribute("x", "1");
+		assertEquals("uw", t.toString());
+		// indirect invocation compiles v on demand
+		StringTemplate e = new StringTemplate(group, "<(name)()>");
+		e.setAttribute("name", "v");
+		assertEquals("v", e.toString());
+		assertTrue(group.getTemplateCallGraph().containsKey("v"));
+	}
+
+	@Test public void testPublishNewGroupVersion() throws Exception {
+		String templates =
+			"group holder;" +newline+
+			"t() ::= \"t1 <u()>\"" +newline+
+			"u() ::= \"u1\"" +newline;
+		StringTemplateGroupHolder holder = new StringTemplateGroupHolder(
+			new StringTemplateGroup(new StringReader(templates)));
+		StringTemplate before = holder.getInstanceOf("t");
+		StringTemplateGroup v1 = holder.getGroup();
+
+		templates =
+			"group holder;" +newline+
+			"t() ::= \"t2 <u()>\"" +newline+
+			"u() ::= \"u2\"" +newline;
+		holder.publish(new StringReader(templates));
+		assertEquals(2, holder.getVersion());
+		assertEquals("t1 u1", before.toString()); // in flight: old version
+		assertEquals("t2 u2", holder.getInstanceOf("t").toString());
+		assertNotSame(v1, holder.getGroup());
+	}
+
+	@Test public void testPublishedGroupNotFoundByNameUntilPublished() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir");
+		writeFile(tmpdir, "holderI.sti", "interface holderI;"+newline+"missing();"+newline);
+		StringTemplateGroup.registerGroupLoader(new PathGroupLoader(tmpdir, new ErrorBuffer()));
+		final StringTemplateGroup[] seen = new StringTemplateGroup[1];
+		StringTemplateErrorListener probe = new StringTemplateErrorListener() {
+			public void error(String msg, Throwable e) {
+				// the new group is fully parsed and checking its interfaces
+				StringTemplateGroup sub = new StringTemplateGroup(
+					new StringReader("group holderProbe : holder2;"+newline+"p() ::= \"p\""+newline));
+				seen[0] = sub.getSuperGroup();
+			}
+			public void warning(String msg) { }
+		};
+		StringTemplateGroup v1 = new StringTemplateGroup(
+			new StringReader("group holder2;"+newline+"t() ::= \"t1\""+newline),
+			AngleBracketTemplateLexer.class, probe);
+		StringTemplateGroupHolder holder = new StringTemplateGroupHolder(v1);
+		StringTemplateGroup v2 = holder.publish(new StringReader(
+			"group holder2 implements holderI;"+newline+"t() ::= \"t2\""+newline));
+		assertSame(v1, seen[0]); // not the unpublished v2
+		assertSame(v2, holder.getGroup());
+		assertEquals(2, holder.getVersion());
+	}
+
+	@Test public void testPrecompileAll() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir")+"/precompile";
+		new File(tmpdir+"/sub").mkdirs();
+		writeFile(tmpdir, "a.st", "a: <sub/b()>");
+		writeFile(tmpdir+"/sub", "b.st", "b<@r()>");
+		writeFile(tmpdir, "c.st", "c");
+		StringTemplateGroup group = new StringTemplateGroup("precompile", tmpdir,
+				AngleBracketTemplateLexer.class);
+		java.util.concurrent.ExecutorService executor =
+			java.util.concurrent.Executors.newFixedThreadPool(2);
+		try {
+			assertEquals(3, group.precompileAll(executor, true));
+			assertNotNull(group.getTemplateDefinition("a"));
+			assertNotNull(group.getTemplateDefinition("sub/b"));
+			assertNotNull(group.getTemplateDefinition("c"));
+			assertEquals("a: b", group.getInstanceOf("a").toString());
+			assertEquals(0, group.precompileAll(executor)); // already done
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testPrecompileAllCompilesDeferredGroupFileTemplates() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"t() ::= \"<u()>\"" +newline+
+			"u() ::= \"u\"" +newline+
+			"v() ::= \"v<w()>\"" +newline+
+			"w() ::= \"w\"" +newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates),
+									AngleBracketTemplateLexer.class, null, null,
+									Arrays.asList(new String[] {"t"}));
+		assertFalse(group.getTemplateCallGraph().containsKey("v"));
+		java.util.concurrent.ExecutorService executor =
+			java.util.concurrent.Executors.newFixedThreadPool(2);
+		try {
+			assertEquals(2, group.precompileAll(executor, true));
+			Map graph = group.getTemplateCallGraph();
+			assertEquals(Collections.singleton("w"), graph.get("v"));
+			assertTrue(graph.containsKey("w"));
+			assertEquals("vw", group.getInstanceOf("v").toString());
+
+			// a CLASSPATH group doesn't compile every .st it can see
+			StringTemplateGroup cp = new StringTemplateGroup("cp");
+			assertEquals(0, cp.precompileAll(executor));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testPrecompileWarmUpIsQuietAndKeepsRegions() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir")+"/precompileQuiet";
+		new File(tmpdir).mkdirs();
+		writeFile(tmpdir, "w.st", "<\"s\".nosuch>");
+		writeFile(tmpdir, "rg.st", "[<@r>theirs<@end>]");
+		StringTemplateGroup group = new StringTemplateGroup("precompileQuiet", tmpdir,
+				AngleBracketTemplateLexer.class);
+		ErrorBuffer errors = new ErrorBuffer();
+		group.setErrorListener(errors);
+		// already defined; compiling rg must not replace it
+		group.defineRegionTemplate("rg", "r", "mine", StringTemplate.REGION_EXPLICIT);
+		java.util.concurrent.ExecutorService executor =
+			java.util.concurrent.Executors.newFixedThreadPool(2);
+		try {
+			assertEquals(2, group.precompileAll(executor, true));
+			assertEquals("", errors.toString()); // warm-up problems not reported
+			assertEquals("[mine]", group.getInstanceOf("rg").toString());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testTemplateResourceIndex() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir")+"/resindex";
+		new File(tmpdir+"/dir/t").mkdirs();
+		File jarFile = new File(tmpdir, "templates.jar");
+		java.util.jar.JarOutputStream jar =
+			new java.util.jar.JarOutputStream(new FileOutputStream(jarFile));
+		jar.putNextEntry(new java.util.jar.JarEntry("t/injar.st"));
+		jar.write("in jar".getBytes());
+		jar.closeEntry();
+		jar.close();
+		writeFile(tmpdir+"/dir/t", "indir.st", "in dir");
+		// skip the system loader; on Java 9+ we can't see all it serves
+		ClassLoader system = ClassLoader.getSystemClassLoader();
+		ClassLoader cl = new java.net.URLClassLoader(new java.net.URL[] {
+			jarFile.toURI().toURL(), new File(tmpdir+"/dir").toURI().toURL()
+		}, system.getParent());
+		if ( !(system instanceof java.net.URLClassLoader) ) {
+			assertFalse(TemplateResourceIndex.getIndex(system).isComplete());
+		}
+		TemplateResourceIndex index = TemplateResourceIndex.getIndex(cl);
+		assertTrue(index.isComplete());
+		assertSame(index, TemplateResourceIndex.getIndex(cl));
+		assertTrue(index.mightContain("t/injar.st"));
+		assertTrue(index.mightContain("t/indir.st"));
+		assertFalse(index.mightContain("t/missing.st"));
+		writeFile(tmpdir+"/dir/t", "added.st", "added");
+		assertTrue(index.mightContain("t/added.st")); // dirs aren't cached
+		List names = index.getResourceNames(".st");
+		assertTrue(names.contains("t/injar.st"));
+		assertTrue(names.contains("t/indir.st"));
+
+		ClassLoader old = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(cl);
+		try {
+			StringTemplateGroup group = new StringTemplateGroup("resindex");
+			assertEquals("in jar", group.getInstanceOf("t/injar").toString());
+			try {
+				group.getInstanceOf("t/missing");
+				fail("t/missing.st isn't anywhere");
+			}
+			catch (IllegalArgumentException iae) {
+			}
+		}
+		finally {
+			Thread.currentThread().setContextClassLoader(old);
+		}
+	}
+
+	@Test public void testTemplateFileLineEndingsAndTrim() throws Exception {
+		String tmpdir = System.getProperty("java.io.tmpdir")+"/lineends";
+		new File(tmpdir).mkdirs();
+		writeFile(tmpdir, "t.st", " \t\r\na\r\nb\rc\n<x>\n\n");
+		StringTemplateGroup group = new StringTemplateGroup("lineends", tmpdir,
+				AngleBracketTemplateLexer.class);
+		StringTemplate st = group.getInstanceOf("t");
+		assertEquals("a"+newline+"b"+newline+"c"+newline+"<x>",
+					 group.getTemplateDefinition("t").getTemplate());
+		st.setAttribute("x", "d");
+		assertEquals("a"+newline+"b"+newline+"c"+newline+"d", st.toString());
+	}
+
+	@Test public void testCachingGroupLoader() throws Exception {
+		StringTemplateErrorListener errors = new ErrorBuffer();
+		String tmpdir = System.getProperty("java.io.tmpdir");
+		String templates =
+			"group cachedG;" +newline+
+			"t() ::= <<foo>>" +newline;
+		writeFile(tmpdir, "cachedG.stg", templates);
+		CachingGroupLoader loader =
+			new CachingGroupLoader(new PathGroupLoader(tmpdir, errors), 1);
+		StringTemplateGroup g1 = loader.loadGroup("cachedG");
+		StringTemplateGroup g2 = loader.loadGroup("cachedG");
+		assertSame(g1, g2);
+		assertEquals(1, loader.getMisses());
+		assertEquals(1, loader.getHits());
+
+		writeFile(tmpdir, "cachedG.stg", templates+"u() ::= <<bar>>"+newline);
+		StringTemplateGroup g3 = loader.loadGroup("cachedG");
+		assertNotSame(g1, g3);
+		assertEquals("bar", g3.getInstanceOf("u").toString());
+		assertEquals(1, loader.getEvictions()); // max 1 group
+		assertEquals(1, loader.size());
+		assertNull(loader.loadGroup("noSuchGroup"));
+	}
+
+	@Test public void testParallelGroupLoader() throws Exception {
+		StringTemplateErrorListener errors = new ErrorBuffer();
+		String tmpdir = System.getProperty("java.io.tmpdir");
+		writeFile(tmpdir, "parI1.sti", "interface parI1;"+newline+"a();"+newline);
+		writeFile(tmpdir, "parI2.sti", "interface parI2;"+newline+"b();"+newline);
+		writeFile(tmpdir, "parRoot.stg",
+				  "group parRoot implements parI1;"+newline+
+				  "a() ::= <<root a>>"+newline);
+		writeFile(tmpdir, "parMid.stg",
+				  "group parMid : parRoot;"+newline+
+				  "b() ::= \"mid b, <a()>\""+newline);
+		writeFile(tmpdir, "parLeaf.stg",
+				  "// a comment"+newline+
+				  "group parLeaf : parMid implements parI1, parI2;"+newline+
+				  "a() ::= <<leaf a>>"+newline);
+		java.util.concurrent.ExecutorService executor =
+			java.util.concurrent.Executors.newFixedThreadPool(2);
+		try {
+			ParallelGroupLoader loader =
+				new ParallelGroupLoader(tmpdir, errors, executor);
+			StringTemplateGroup group = loader.loadGroup("parLeaf");
+			assertEquals("parMid", group.getSuperGroup().getName());
+			assertEquals("parRoot", group.getSuperGroup().getSuperGroup().getName());
+			assertEquals("mid b, leaf a", group.getInstanceOf("b").toString());
+			assertEquals("", errors.toString());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testParallelGroupLoaderReadsDeepChainInBackground() throws Exception {
+		StringTemplateErrorListener errors = new ErrorBuffer();
+		String tmpdir = System.getProperty("java.io.tmpdir");
+		StringBuffer longComment = new StringBuffer("/* ");
+		for (int i=0; i<300; i++) {
+			longComment.append("pad; ");
+		}
+		longComment.append("*/");
+		writeFile(tmpdir, "parDeep0.stg",
+				  "group parDeep0;"+newline+"t() ::= <<0>>"+newline);
+		for (int i=1; i<6; i++) {
+			// header well past the first chunk read
+			writeFile(tmpdir, "parDeep"+i+".stg",
+					  longComment+newline+
+					  "group parDeep"+i+" : parDeep"+(i-1)+";"+newline+
+					  "t() ::= \""+i+"<super.t()>\""+newline);
+		}
+		final java.util.concurrent.ExecutorService pool =
+			java.util.concurrent.Executors.newFixedThreadPool(2);
+		final java.util.concurrent.atomic.AtomicInteger tasks =
+			new java.util.concurrent.atomic.AtomicInteger();
+		java.util.concurrent.Executor counting = new java.util.concurrent.Executor() {
+			public void execute(Runnable r) {
+				tasks.incrementAndGet();
+				pool.execute(r);
+			}
+		};
+		try {
+			ParallelGroupLoader loader =
+				new ParallelGroupLoader(tmpdir, errors, counting);
+			StringTemplateGroup group = loader.loadGroup("parDeep5");
+			assertEquals("543210", group.getInstanceOf("t").toString());
+			assertEquals(6, tasks.get()); // one file read per group
+			assertEquals("", errors.toString());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test public void testParallelGroupLoaderReportsSuperGroupCycle() throws Exception {
+		StringTemplateErrorListener errors = new ErrorBuffer();
+		String tmpdir = System.getProperty("java.io.tmpdir");
+		writeFile(tmpdir, "parCycleA.stg",
+				  "group parCycleA : parCycleB;"+newline+"a() ::= <<a>>"+newline);
+		writeFile(tmpdir, "parCycleB.stg",
+				  "group parCycleB : parCycleA;"+newline+"b() ::= <<b>>"+newline);
+		java.util.concurrent.ExecutorService executor =
+			java.util.concurrent.Executors.newFixedThreadPool(2);
+		try {
+			ParallelGroupLoader loader =
+				new ParallelGroupLoader(tmpdir, errors, executor);
+			assertNull(loader.loadGroup("parCycleA"));
+			assertTrue(errors.toString().indexOf("cycle in supergroup chain")>=0);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
 	@Test public void testGroupSatisfiesSingleInterface() throws Exception {
 		// this also tests the group loader
 		StringTemplateErrorListener errors = new ErrorBuffer();
@@ -1110,6 +2037,62 @@ public class TestStringTemplate {
         assertEquals(expecting, t.toString());
     }
 
+    @Test public void testNumberArraysAndBoxedNumbers() throws Exception {
+        StringTemplate t = new StringTemplate(
+            "<ints; separator=\",\"> <longs; separator=\",\"> "+
+            "<doubles; separator=\",\"> <floats; separator=\",\"> "+
+            "<bytes> <i> <l> <d>"+newline+
+            "  <ints:{x|[<x>]}>",
+            AngleBracketTemplateLexer.class);
+        t.setAttribute("ints", new int[] {0,-7,2147483647,-2147483648});
+        t.setAttribute("longs", new long[] {Long.MIN_VALUE,Long.MAX_VALUE});
+        t.setAttribute("doubles", new double[] {3.0,-0.0,0.5,1e7,Double.NaN});
+        t.setAttribute("floats", new float[] {3f,1.1f,3.4e38f});
+        t.setAttribute("bytes", new byte[] {1,-2});
+        t.setAttribute("i", new Integer(42));
+        t.setAttribute("l", new Long(-12345678901L));
+        t.setAttribute("d", new Double(-12.0));
+        String expecting =
+            "0,-7,2147483647,-2147483648 "+
+            "-9223372036854775808,9223372036854775807 "+
+            "3.0,-0.0,0.5,1.0E7,NaN 3.0,1.1,3.4E38 1-2 42 -12345678901 -12.0"+newline+
+            "  [0][-7][2147483647][-2147483648]";
+        assertEquals(expecting, t.toString());
+        t.registerRenderer(Integer.class, new AttributeRenderer() {
+            public String toString(Object o) { return "#"+o; }
+            public String toString(Object o, String formatName) { return "#"+o; }
+        });
+        assertTrue(t.toString().startsWith("#0,#-7,"));
+    }
+
+    @Test public void testIteratorIndexesPastSharedBoxes() throws Exception {
+		StringTemplateGroup group =
+			new StringTemplateGroup("test", AngleBracketTemplateLexer.class);
+		StringTemplate st = new StringTemplate(group,
+			"<xs:{x|<if(x)><i0>/<i><endif>}>");
+		int n = 5000; // more than ASTExpr shares boxed indexes for
+		Boolean[] xs = new Boolean[n];
+		Arrays.fill(xs, Boolean.FALSE);
+		xs[200] = xs[4096] = xs[4999] = Boolean.TRUE;
+		st.setAttribute("xs", xs);
+		assertEquals("200/2014096/40974999/5000", st.toString());
+	}
+
+    @Test public void testWriterSubclassSeesNumbers() throws Exception {
+        StringTemplate t = new StringTemplate(
+            "<i> <ints; separator=\",\">", AngleBracketTemplateLexer.class);
+        t.setAttribute("i", new Integer(-5));
+        t.setAttribute("ints", new int[] {-1,2});
+        StringWriter sw = new StringWriter();
+        // a subclass filtering write(String) must not be bypassed
+        t.write(new AutoIndentWriter(sw) {
+            public int write(String str) throws IOException {
+                return super.write(str.replace('-', '~'));
+            }
+        });
+        assertEquals("~5 ~1,2", sw.toString());
+    }
+
     @Test public void testParenthesizedExpression() throws Exception {
         StringTemplateGroup group =
                 new StringTemplateGroup("test");
@@ -3532,6 +4515,118 @@ public class TestStringTemplate {
 		}
 	}
 
+	/** Escapes XML special chars as it writes; never builds the escaped
+	 *  string.  toString() must not be called by ST.
+	 */
+	public class StreamingXMLRenderer implements StreamingAttributeRenderer {
+		public String toString(Object o) {
+			throw new UnsupportedOperationException();
+		}
+		public String toString(Object o, String formatString) {
+			throw new UnsupportedOperationException();
+		}
+		public int write(Object o, String formatString, StringTemplateWriter out)
+			throws IOException
+		{
+			String s = o.toString();
+			if ( formatString!=null && formatString.equals("upper") ) {
+				s = s.toUpperCase();
+			}
+			int n = 0;
+			int start = 0;
+			for (int i=0; i<s.length(); i++) {
+				String esc = null;
+				switch ( s.charAt(i) ) {
+					case '<' : esc = "&lt;"; break;
+					case '>' : esc = "&gt;"; break;
+					case '&' : esc = "&amp;"; break;
+				}
+				if ( esc!=null ) {
+					n += out.write(s.substring(start, i));
+					n += out.write(esc);
+					start = i+1;
+				}
+			}
+			n += out.write(s.substring(start));
+			return n;
+		}
+	}
+
+	@Test public void testStreamingRenderer() throws Exception {
+		StringTemplate st =new StringTemplate(
+				"<names; separator=\", \"> <name:{n|<n>!}; format=\"upper\">",
+				AngleBracketTemplateLexer.class);
+		st.setAttribute("names", "a<b");
+		st.setAttribute("names", "c&d");
+		st.setAttribute("name", "x");
+		st.registerRenderer(String.class, new StreamingXMLRenderer());
+		String expecting = "a&lt;b, c&amp;d X!";
+		String result = st.toString();
+		assertEquals(expecting, result);
+	}
+
+	public class UpperCaseFilterRenderer implements FilteringAttributeRenderer {
+		public int buffered = 0;
+		public String toString(Object o) {
+			return o.toString();
+		}
+		public String toString(Object o, String formatString) {
+			buffered++;
+			return o.toString().toUpperCase()+"<"+formatString+">";
+		}
+		public StringTemplateWriter getFilter(String formatName,
+											  StringTemplateWriter out)
+		{
+			if ( !formatName.equals("upper") ) return null;
+			return new FilterStringTemplateWriter(out) {
+				protected String filter(String str) {
+					return str.toUpperCase();
+				}
+			};
+		}
+	}
+
+	@Test public void testFilteringRendererOnNestedTemplate() throws Exception {
+		String templates =
+			"group test;" +newline+
+			"t(items) ::= <<"+newline+
+			"begin"+newline+
+			"  <body(items); format=\"upper\">"+newline+
+			"end"+newline+
+			">>"+newline+
+			"body(items) ::= <<"+newline+
+			"<items; separator=\",\n\">"+newline+
+			"done"+newline+
+			">>"+newline;
+		StringTemplateGroup group =
+			new StringTemplateGroup(new StringReader(templates));
+		UpperCaseFilterRenderer renderer = new UpperCaseFilterRenderer();
+		group.registerRenderer(String.class, renderer);
+		StringTemplate t = group.getInstanceOf("t");
+		t.setAttribute("items", "a");
+		t.setAttribute("items", "b");
+		String expecting =
+			"begin"+newline+
+			"  A,"+newline+
+			"  B"+newline+
+			"  DONE"+newline+
+			"end";
+		assertEquals(expecting, t.toString());
+		assertEquals(0, renderer.buffered);
+	}
+
+	@Test public void testFilteringRendererFallsBackToBuffer() throws Exception {
+		StringTemplate st =new StringTemplate(
+				"<name:{n|<n>!}; format=\"quoted\">",
+				AngleBracketTemplateLexer.class);
+		st.setAttribute("name", "x");
+		UpperCaseFilterRenderer renderer = new UpperCaseFilterRenderer();
+		st.registerRenderer(String.class, renderer);
+		String expecting = "X!<quoted>";
+		assertEquals(expecting, st.toString());
+		assertEquals(1, renderer.buffered);
+	}
+
 	@Test public void testRendererForST() throws Exception {
 		StringTemplate st =new StringTemplate(
 				"date: <created>",
@@ -5789,6 +6884,94 @@ public class TestStringTemplate {
         assertEquals(expecting, st.toString());
     }
 
+	@Test public void testOpenReaderMatchesToString() throws Exception {
+		StringTemplate st = new StringTemplate(
+				"<names:{n | [<n>]}; separator=\", \">",
+				AngleBracketTemplateLexer.class);
+		for (int i=0; i<1000; i++) {
+			st.setAttribute("names", "name"+i);
+		}
+		String expecting = st.toString();
+		// tiny segments force the renderer to block on the reader a lot
+		Reader r = new StringTemplateReader(st, StringTemplateWriter.NO_WRAP, 7, 2);
+		StringBuffer buf = new StringBuffer();
+		char[] cbuf = new char[13];
+		int n;
+		while ( (n=r.read(cbuf, 0, cbuf.length))!=-1 ) {
+			buf.append(cbuf, 0, n);
+		}
+		r.close();
+		assertEquals(expecting, buf.toString());
+	}
+
+	@Test public void testCloseOpenReaderEarly() throws Exception {
+		StringTemplate st = new StringTemplate(
+				"<names; separator=\",\">",
+				AngleBracketTemplateLexer.class);
+		for (int i=0; i<10000; i++) {
+			st.setAttribute("names", "name"+i);
+		}
+		Reader r = st.openReader();
+		char[] cbuf = new char[5];
+		assertEquals(5, r.read(cbuf, 0, 5));
+		assertEquals("name0", new String(cbuf));
+		r.close();
+	}
+
+	@Test public void testPipelinedWriter() throws Exception {
+		StringTemplate st = new StringTemplate(
+				"<names:{n | <i>=<n>}; separator=\"\\n\">",
+				AngleBracketTemplateLexer.class);
+		for (int i=0; i<2000; i++) {
+			st.setAttribute("names", "name"+i);
+		}
+		String expecting = st.toString();
+		StringWriter sw = new StringWriter();
+		Writer w = new PipelinedWriter(sw, 16, 2);
+		st.write(st.getGroup().getStringTemplateWriter(w));
+		w.close();
+		assertEquals(expecting, sw.toString());
+	}
+
+	@Test public void testPipelinedWriterReportsIOError() throws Exception {
+		Writer broken = new Writer() {
+			public void write(char[] cbuf, int off, int len) throws IOException {
+				throw new IOException("disk full");
+			}
+			public void flush() {}
+			public void close() {}
+		};
+		Writer w = new PipelinedWriter(broken, 4, 1);
+		w.write("0123456789");
+		try {
+			w.close();
+			fail("expected IOException");
+		}
+		catch (IOException ioe) {
+			assertEquals("disk full", ioe.getCause().getMessage());
+		}
+	}
+
+	@Test public void testPipelinedWriterReportsUncheckedError() throws Exception {
+		Writer broken = new Writer() {
+			public void write(char[] cbuf, int off, int len) {
+				throw new IllegalStateException("socket gone");
+			}
+			public void flush() {}
+			public void close() {}
+		};
+		Writer w = new PipelinedWriter(broken, 4, 1);
+		try {
+			// many more segments than the queue holds; must not block
+			for (int i=0; i<100; i++) w.write("0123456789");
+			w.close();
+			fail("expected IOException");
+		}
+		catch (IOException ioe) {
+			assertTrue(ioe.getCause() instanceof IllegalStateException);
+		}
+	}
+
     public static void writeFile(String dir, String fileName, String content) {
 		try {
 			File f = new File(dir, fileName);